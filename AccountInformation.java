@@ -1,91 +1,142 @@
 
 
+// The GUI's view of one player's record in a PlayerStatsStore. Each toString reads all the
+// counters at one moment, so the numbers shown always add up even while games are recorded.
 public class AccountInformation
 {
+   private final PlayerStatsStore store;
+   private final int player;
 
-   private int numberOfWin=0;
+   // the local player in a store that is not saved
+   public AccountInformation()
+   {
+      this(new PlayerStatsStore(), GameController.LOCAL_PLAYER);
+   }
 
-   private int numberOfWinC=0;
-   private  int numberOfPlay=1;
-   private int tiedWithComputer=0;
-   private int tiedWithHuman =0;
+   public AccountInformation(PlayerStatsStore store, int player)
+   {
+      this.store = store;
+      this.player = player;
+   }
 
-   private int computerWin=0;
+   public PlayerStatsStore getStore()
+   {
+      return store;
+   }
 
-   private int guestWin=0;
+   public int getPlayer()
+   {
+      return player;
+   }
 
-   public AccountInformation()
+   // result is PlayerStatsStore.WIN, LOSS or DRAW from this player's side
+   public void recordGame(boolean againstComputer, int result)
    {
+      store.recordGame(player, againstComputer, result);
    }
-   public void setTiedWithComputer(int tie)
+
+   // The setters are kept from before the store and set the counters in it outright;
+   // recordGame counts a game without reading the old value first.
+   @Deprecated public void setTiedWithComputer(int tie)
    {
-      tiedWithComputer =tie;
+      set(PlayerStatsStore.DRAW, true, tie);
    }
-   public void setTiedWithHuman(int tie)
+   @Deprecated public void setTiedWithHuman(int tie)
    {
-      tiedWithHuman =tie;
+      set(PlayerStatsStore.DRAW, false, tie);
    }
-   public void setNumberOfWin(int win)
+   @Deprecated public void setNumberOfWin(int win)
    {
-      numberOfWin=win;
+      set(PlayerStatsStore.WIN, false, win);
    }
-   public void setNumberOfWinC(int win)
+   @Deprecated public void setNumberOfWinC(int win)
    {
-      numberOfWinC=win;
+      set(PlayerStatsStore.WIN, true, win);
    }
-   public void setComputerWin(int win)
+   @Deprecated public void setComputerWin(int win)
    {
-      computerWin=win;
+      set(PlayerStatsStore.LOSS, true, win);
    }
-   public void setguestWin(int win)
+   @Deprecated public void setguestWin(int win)
+   {
+      set(PlayerStatsStore.LOSS, false, win);
+   }
+   // The game number is now one more than the games counted, so it moves with the setters
+   // above and this has nothing left to set.
+   @Deprecated public void setNumberOfPlay(int play)
    {
-      guestWin=win;
    }
 
    public int getNumberOfWin()
    {
-      return numberOfWin;
+      return get(PlayerStatsStore.WIN, false);
    }
    public int getNumberOfWinC()
    {
-      return numberOfWinC;
+      return get(PlayerStatsStore.WIN, true);
    }
    public int getComputerWin()
    {
-      return computerWin;
+      return get(PlayerStatsStore.LOSS, true);
    }
    public int getTiedWithComputer()
    {
-      return tiedWithComputer;
+      return get(PlayerStatsStore.DRAW, true);
    }
    public int getTiedWithHuman()
    {
-      return tiedWithHuman;
+      return get(PlayerStatsStore.DRAW, false);
    }
    public int getGuestWin()
    {
-      return guestWin;
+      return get(PlayerStatsStore.LOSS, false);
    }
+   // number of the game being played, 1 before any has finished
    public int getNumberOfPlay()
    {
-      return numberOfPlay;
+      long[] counters = new long[PlayerStatsStore.COUNTERS];
+      store.read(player, counters);
+      return numberOfPlay(counters);
+   }
+
+   private void set(int result, boolean againstComputer, int value)
+   {
+      store.set(player, PlayerStatsStore.counter(result, againstComputer), value);
    }
-   public void setNumberOfPlay(int play)
+
+   private int get(int result, boolean againstComputer)
    {
-      numberOfPlay=play;
+      return (int)store.get(player, PlayerStatsStore.counter(result, againstComputer));
    }
+
+   private static int numberOfPlay(long[] counters)
+   {
+      long played = 0;
+      for (long count : counters)
+      {
+         played += count;
+      }
+      return (int)(played + 1);
+   }
+
    public String toString(int whatToPrint)
    {
+      long[] counters = new long[PlayerStatsStore.COUNTERS];
+      store.read(player, counters);
       String info="";
       ///computer
       if(whatToPrint==1)
       {
-         info= "Play #: "+getNumberOfPlay()+ " |Won: "+ getNumberOfWinC()+" |"+ "AI won: "+getComputerWin()+" |Tied: "+getTiedWithComputer();
+         info= "Play #: "+numberOfPlay(counters)+ " |Won: "+ counters[PlayerStatsStore.counter(PlayerStatsStore.WIN, true)]
+               +" |"+ "AI won: "+counters[PlayerStatsStore.counter(PlayerStatsStore.LOSS, true)]
+               +" |Tied: "+counters[PlayerStatsStore.counter(PlayerStatsStore.DRAW, true)];
       }
       //quest
       else
       {
-         info= "Play #: "+getNumberOfPlay()+ " |Won: "+ getNumberOfWin()+" |"+ "Guest won: "+getGuestWin()+" |Tied: "+getTiedWithHuman();
+         info= "Play #: "+numberOfPlay(counters)+ " |Won: "+ counters[PlayerStatsStore.counter(PlayerStatsStore.WIN, false)]
+               +" |"+ "Guest won: "+counters[PlayerStatsStore.counter(PlayerStatsStore.LOSS, false)]
+               +" |Tied: "+counters[PlayerStatsStore.counter(PlayerStatsStore.DRAW, false)];
       }
 
       return info;
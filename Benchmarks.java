@@ -0,0 +1,316 @@
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+// Quick runner for the board and engine hot paths, for a check without building the JMH
+// module in jmh/, which holds the reference benchmarks. Each benchmark is warmed up, then
+// measured over several timed iterations; throughput, average time per operation and
+// bytes allocated per operation (from the thread allocation counter) are reported.
+//
+// java Benchmarks                              run everything
+// java Benchmarks -o results.txt               also write the results in baseline format
+// java Benchmarks -c benchmarks-baseline.txt   compare against the saved baseline, exit 1 on a regression
+// java Benchmarks -f Board                     only benchmarks whose name contains "Board"
+public class Benchmarks
+{
+   private static final long WARMUP_NANOS = 1000000000L;
+   private static final long ITERATION_NANOS = 500000000L;
+   private static final int ITERATIONS = 5;
+   private static final int BATCH = 256;
+   // A throughput drop or allocation growth larger than this against the baseline is flagged.
+   // Runs of this runner differ by 15% or more, so a drop must also clear twice the combined
+   // error of the two runs.
+   private static final double REGRESSION = 0.25;
+   // escape analysis may or may not remove a small array, so allow that much allocation noise
+   private static final double ALLOCATION_SLACK = 32;
+
+   private static final com.sun.management.ThreadMXBean THREADS =
+         (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+   // results are folded into this so the JIT cannot drop the measured calls
+   static volatile int blackhole;
+
+   private final List<Result> results = new ArrayList<>();
+   private final String filter;
+
+   private Benchmarks(String filter)
+   {
+      this.filter = filter;
+   }
+
+   private static class Result
+   {
+      final String name;
+      final double opsPerSecond;
+      final double error;
+      final double bytesPerOp;
+
+      Result(String name, double opsPerSecond, double error, double bytesPerOp)
+      {
+         this.name = name;
+         this.opsPerSecond = opsPerSecond;
+         this.error = error;
+         this.bytesPerOp = bytesPerOp;
+      }
+
+      double nanosPerOp()
+      {
+         return 1e9 / opsPerSecond;
+      }
+   }
+
+   private void run()
+   {
+      Board empty = new Board();
+      Board midgame = position(new int[] {4, 0, 8}, new int[] {});
+      Board nearEnd = position(new int[] {4, 0, 8, 5, 7, 2}, new int[] {});
+      Board full = position(new int[] {4, 0, 8, 2, 1, 7, 6, 3, 5}, new int[] {});
+      // rotating through a few positions keeps the JIT from hoisting the call out of the loop
+      Board[] small = {
+            position(new int[] {0, 4, 1, 5, 2}, new int[] {}), midgame, nearEnd, full};
+      Board[] large = {
+            position(new int[] {112, 113, 96, 128, 98, 97, 126}, new int[] {15, 15, 5}),
+            position(new int[] {112, 113, 96, 128, 98, 97, 126, 111, 80}, new int[] {15, 15, 5}),
+            position(new int[] {0, 224, 16, 208, 32, 192}, new int[] {15, 15, 5}),
+            position(new int[] {}, new int[] {15, 15, 5})};
+
+      measure("Board.checkIfWinner 3x3", i -> small[i & 3].checkIfWinner(Player.X) ? 1 : 0);
+      measure("Board.checkIfWinner 15x15", i -> large[i & 3].checkIfWinner(Player.X) ? 1 : 0);
+      measure("Board.isWinningMove 15x15", i -> large[i & 3].isWinningMove(Player.X, 126) ? 1 : 0);
+      measure("Board.boardIsFull", i -> small[i & 3].boardIsFull() ? 1 : 0);
+
+      measure("ComputerMove.evaluate 3x3", i -> ComputerMove.evaluate(small[i & 3], Player.O));
+      measure("ComputerMove.evaluate 15x15", i -> ComputerMove.evaluate(large[i & 3], Player.O));
+
+      ComputerMove table = new ComputerMove();
+      ComputerMove warm = new ComputerMove();
+      warm.setMoveTable(null);
+      // a small table keeps the clear() between searches from dominating the timing
+      ComputerMove cold = new ComputerMove();
+      cold.setMoveTable(null);
+      cold.setTranspositionTableBits(10);
+      measure("ComputerMove.move opening (move table)", i -> table.move(Player.X, empty)[0]);
+      measure("ComputerMove.move opening (warm TT)", i -> warm.move(Player.X, empty)[0]);
+      measure("ComputerMove.move opening (cold TT)", i -> {
+         cold.getTranspositionTable().clear();
+         return cold.move(Player.X, empty)[0];
+      });
+      measure("ComputerMove.move midgame (cold TT)", i -> {
+         cold.getTranspositionTable().clear();
+         return cold.move(Player.O, midgame)[0];
+      });
+      measure("ComputerMove.move near-terminal (cold TT)", i -> {
+         cold.getTranspositionTable().clear();
+         return cold.move(Player.O, nearEnd)[0];
+      });
+
+      // the same searches reporting to a SearchMetrics; the ones above run without, which is
+      // the default, so each pair shows what instrumentation costs. What the disabled hooks
+      // cost is below what this runner can see; jmh/MetricsBenchmarks measures it.
+      ComputerMove warmMetrics = new ComputerMove();
+      warmMetrics.setMoveTable(null);
+      warmMetrics.setMetrics(new SearchMetrics());
+      ComputerMove coldMetrics = new ComputerMove();
+      coldMetrics.setMoveTable(null);
+      coldMetrics.setTranspositionTableBits(10);
+      coldMetrics.setMetrics(new SearchMetrics());
+      measure("ComputerMove.move opening (warm TT, metrics)", i -> warmMetrics.move(Player.X, empty)[0]);
+      measure("ComputerMove.move midgame (cold TT, metrics)", i -> {
+         coldMetrics.getTranspositionTable().clear();
+         return coldMetrics.move(Player.O, midgame)[0];
+      });
+
+      // a whole game of numbered moves through the ValueSetter string round trip
+      MakeMove makeMove = new MakeMove();
+      int[] moves = {5, 1, 9, 3, 2, 8, 7, 4, 6};
+      measure("MakeMove.makeMove x9", i -> {
+         makeMove.getBoard().refreshBoard();
+         int wins = 0;
+         Player player = Player.X;
+         for (int value : moves)
+         {
+            wins += makeMove.makeMove(value, player) ? 1 : 0;
+            player = player.getOtherColor();
+         }
+         return wins;
+      });
+
+      Game game = new Game(Board.ROWS, Board.COLUMNS, Board.WIN_LENGTH);
+      MoveStrategy random = new RandomMove();
+      measure("Game move table vs random", i -> playGame(game, table, random));
+      measure("Game negamax vs random", i -> playGame(game, warm, random));
+   }
+
+   private static int playGame(Game game, MoveStrategy x, MoveStrategy o)
+   {
+      game.newGame();
+      Player player = Player.X;
+      while (game.playGame(player, player == Player.X ? x : o))
+      {
+         player = player.getOtherColor();
+      }
+      return game.getBoard().getStones();
+   }
+
+   private static Board position(int[] cells, int[] size)
+   {
+      Board board = size.length == 0 ? new Board() : new Board(size[0], size[1], size[2]);
+      Player player = Player.X;
+      for (int cell : cells)
+      {
+         board.setCell(player, cell);
+         player = player.getOtherColor();
+      }
+      return board;
+   }
+
+   private void measure(String name, IntUnaryOperator op)
+   {
+      if (filter != null && !name.contains(filter))
+         return;
+      long thread = Thread.currentThread().getId();
+      int sink = 0;
+      long end = System.nanoTime() + WARMUP_NANOS;
+      while (System.nanoTime() < end)
+      {
+         for (int i = 0; i < BATCH; i++)
+            sink += op.applyAsInt(i);
+      }
+
+      double[] throughput = new double[ITERATIONS];
+      long totalOps = 0;
+      long totalBytes = 0;
+      for (int it = 0; it < ITERATIONS; it++)
+      {
+         long ops = 0;
+         long bytes = THREADS.getThreadAllocatedBytes(thread);
+         long start = System.nanoTime();
+         long now;
+         do
+         {
+            for (int i = 0; i < BATCH; i++)
+               sink += op.applyAsInt(i);
+            ops += BATCH;
+            now = System.nanoTime();
+         }
+         while (now - start < ITERATION_NANOS);
+         totalBytes += THREADS.getThreadAllocatedBytes(thread) - bytes;
+         totalOps += ops;
+         throughput[it] = ops * 1e9 / (now - start);
+      }
+
+      double mean = 0;
+      for (double t : throughput)
+         mean += t;
+      mean /= ITERATIONS;
+      double variance = 0;
+      for (double t : throughput)
+         variance += (t - mean) * (t - mean);
+      double error = Math.sqrt(variance / (ITERATIONS - 1));
+      Result result = new Result(name, mean, error, (double)totalBytes / totalOps);
+      results.add(result);
+      System.out.println(String.format("%-42s %14.0f +-%5.1f%% ops/s %12.1f ns/op %10.1f B/op %9.1f MB/s",
+            name, mean, 100 * error / mean, result.nanosPerOp(), result.bytesPerOp,
+            result.bytesPerOp * mean / (1024 * 1024)));
+      blackhole = sink;
+   }
+
+   private void write(String file) throws IOException
+   {
+      try (PrintWriter out = new PrintWriter(file))
+      {
+         out.println("# benchmark\tops/s\terror\tns/op\tB/op");
+         out.println("# "+System.getProperty("java.vm.name")+" "+System.getProperty("java.version")
+               +", "+Runtime.getRuntime().availableProcessors()+" cores");
+         for (Result r : results)
+         {
+            out.println(String.format("%s\t%.0f\t%.0f\t%.1f\t%.1f", r.name, r.opsPerSecond, r.error, r.nanosPerOp(), r.bytesPerOp));
+         }
+      }
+   }
+
+   // returns the number of regressions found against the baseline file
+   private int compare(String file) throws IOException
+   {
+      Map<String, double[]> baseline = new HashMap<>();
+      try (BufferedReader in = new BufferedReader(new FileReader(file)))
+      {
+         String line;
+         while ((line = in.readLine()) != null)
+         {
+            if (line.startsWith("#") || line.trim().isEmpty())
+               continue;
+            String[] fields = line.split("\t");
+            baseline.put(fields[0], new double[] {Double.parseDouble(fields[1]), Double.parseDouble(fields[4]),
+                  Double.parseDouble(fields[2])});
+         }
+      }
+      // the whole machine runs faster or slower from one day to the next, by as much as 30%
+      // here, so each benchmark is judged against the median change of this run; one that
+      // slows down with everything else is not flagged, so check the median too
+      double[] ratios = new double[results.size()];
+      int compared = 0;
+      for (Result r : results)
+      {
+         double[] base = baseline.get(r.name);
+         if (base != null)
+            ratios[compared++] = r.opsPerSecond / base[0];
+      }
+      Arrays.sort(ratios, 0, compared);
+      double machine = compared == 0 ? 1 : ratios[compared / 2];
+      int regressions = 0;
+      System.out.println();
+      System.out.println(String.format("Against %s, median change %+.1f%%:", file, 100 * (machine - 1)));
+      for (Result r : results)
+      {
+         double[] base = baseline.get(r.name);
+         if (base == null)
+         {
+            System.out.println(String.format("  %-42s (not in baseline)", r.name));
+            continue;
+         }
+         double change = r.opsPerSecond / base[0] - 1;
+         double relative = (change + 1) / machine - 1;
+         double noise = 2 * Math.hypot(r.error / r.opsPerSecond, base[2] / base[0]);
+         boolean regressed = relative < -Math.max(REGRESSION, noise) || r.bytesPerOp > base[1] * (1 + REGRESSION) + ALLOCATION_SLACK;
+         if (regressed)
+            regressions++;
+         System.out.println(String.format("  %-42s %+7.1f%% ops/s %+7.1f%% against the median %+8.1f B/op%s",
+               r.name, 100 * change, 100 * relative, r.bytesPerOp - base[1], regressed ? "  REGRESSION" : ""));
+      }
+      return regressions;
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      String output = null;
+      String baseline = null;
+      String filter = null;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         switch (args[i])
+         {
+            case "-o": output = args[i+1]; break;
+            case "-c": baseline = args[i+1]; break;
+            case "-f": filter = args[i+1]; break;
+            default: throw new IllegalArgumentException("Unknown option "+args[i]);
+         }
+      }
+      Benchmarks benchmarks = new Benchmarks(filter);
+      benchmarks.run();
+      if (output != null)
+         benchmarks.write(output);
+      if (baseline != null && benchmarks.compare(baseline) > 0)
+         System.exit(1);
+   }
+}
@@ -1,69 +1,371 @@
 
 
+import java.util.Arrays;
+
 public class Board
 {
-    public static final int ROWS =3, COLUMNS=3;
-    private Player[][] player=null;
+    // size of the classic board, used by the no-argument constructor
+    public static final int ROWS =3, COLUMNS=3, WIN_LENGTH=3;
+    public static final int CELLS = ROWS*COLUMNS;
+    public static final int FULL_MASK = (1<<CELLS)-1;
+
+    private final BoardGeometry geometry;
+    private final int rows;
+    private final int cols;
+    private final int cells;
+    // one bit per square, bit index = row*cols+column, 64 squares per word; after changing
+    // how the board is kept, java Perft check compares setCell and the win checks against
+    // the known game-tree counts
+    private final long[] xBits;
+    private final long[] oBits;
+    private int stones=0;
+    private int lastMove=-1;
+    // per winning line, the stones each side has on it; kept up to date by setCell so that
+    // the evaluation and the win checks never have to look at the squares themselves
+    private final int[] xCount;
+    private final int[] oCount;
+    private int xLines=0;       // lines completely filled by X
+    private int oLines=0;
+    private long xScore=0;      // sum of BoardGeometry.lineValues over all lines
+    // Zobrist hash of the stones, and of every symmetric image of the board once
+    // getSymmetryHash has been asked for; both are kept up to date by setCell
+    private long hash=0;
+    private long[] symmetryHashes=null;
 
     public Board()
     {
-        player=new Player[ROWS][COLUMNS];
+        this(ROWS, COLUMNS, WIN_LENGTH);
+    }
+
+    public Board(int rows, int columns, int winLength)
+    {
+        geometry=BoardGeometry.of(rows, columns, winLength);
+        this.rows=rows;
+        this.cols=columns;
+        cells=rows*columns;
+        xBits=new long[geometry.words];
+        oBits=new long[geometry.words];
+        xCount=new int[geometry.lines.length];
+        oCount=new int[geometry.lines.length];
         refreshBoard();
     }
 
+    public Board(Board other)
+    {
+        this(other.rows, other.cols, other.getWinLength());
+        copyFrom(other);
+    }
+
+    // copies the position of a board of the same size
+    public void copyFrom(Board other)
+    {
+        if(other.geometry!=geometry)
+            throw new IllegalArgumentException("Boards differ in size");
+        System.arraycopy(other.xBits, 0, xBits, 0, xBits.length);
+        System.arraycopy(other.oBits, 0, oBits, 0, oBits.length);
+        System.arraycopy(other.xCount, 0, xCount, 0, xCount.length);
+        System.arraycopy(other.oCount, 0, oCount, 0, oCount.length);
+        stones=other.stones;
+        lastMove=other.lastMove;
+        xLines=other.xLines;
+        oLines=other.oLines;
+        xScore=other.xScore;
+        hash=other.hash;
+        if(other.symmetryHashes==null)
+            symmetryHashes=null;
+        else if(symmetryHashes==null)
+            symmetryHashes=other.symmetryHashes.clone();
+        else
+            System.arraycopy(other.symmetryHashes, 0, symmetryHashes, 0, symmetryHashes.length);
+    }
+
     public void refreshBoard()
     {
-        for(int i = 0; i< ROWS; i++)
+        for(int w = 0; w< xBits.length; w++)
         {
-            for(int j = 0; j< COLUMNS; j++)
-            {
+            xBits[w]=0;
+            oBits[w]=0;
+        }
+        Arrays.fill(xCount, 0);
+        Arrays.fill(oCount, 0);
+        stones=0;
+        lastMove=-1;
+        xLines=0;
+        oLines=0;
+        xScore=0;
+        hash=0;
+        if(symmetryHashes!=null)
+            Arrays.fill(symmetryHashes, 0L);
+    }
+    public void setBoard(Player players, int i, int j)
+    {
+        setCell(players, i*cols+j);
+    }
 
-                    player[i][j] = Player.EMPTY;
+    public void setCell(Player players, int cell)
+    {
+        int w = cell>>>6;
+        long bit = 1L<<cell;
+        if((xBits[w] & bit)!=0)
+        {
+            stones--;
+            updateLines(cell, -1, 0);
+            updateHash(geometry.zobristX, cell);
+        }
+        else if((oBits[w] & bit)!=0)
+        {
+            stones--;
+            updateLines(cell, 0, -1);
+            updateHash(geometry.zobristO, cell);
+        }
+        xBits[w] &= ~bit;
+        oBits[w] &= ~bit;
+        if(players==Player.X)
+        {
+            xBits[w] |= bit;
+            updateLines(cell, 1, 0);
+            updateHash(geometry.zobristX, cell);
+        }
+        else if(players==Player.O)
+        {
+            oBits[w] |= bit;
+            updateLines(cell, 0, 1);
+            updateHash(geometry.zobristO, cell);
+        }
+        else
+            return;
+        stones++;
+        lastMove=cell;
+    }
 
-            }
+    // toggles the stone on cell in the hashes
+    private void updateHash(long[] keys, int cell)
+    {
+        hash ^= keys[cell];
+        if(symmetryHashes!=null)
+        {
+            int[][] symmetries = geometry.symmetries;
+            for(int s = 0; s< symmetryHashes.length; s++)
+                symmetryHashes[s] ^= keys[symmetries[s][cell]];
         }
     }
-    public void setBoard(Player players, int i, int j)
+
+    // adds dx X stones and do O stones to every line through cell
+    private void updateLines(int cell, int dx, int dO)
     {
+        int k = geometry.winLength;
+        int[] values = geometry.lineValues;
+        for(int line : geometry.cellLines[cell])
+        {
+            int x = xCount[line], o = oCount[line];
+            xScore -= values!=null ? values[x*(k+1)+o] : BoardGeometry.lineValue(x, o);
+            if(x==k)
+                xLines--;
+            if(o==k)
+                oLines--;
+            x += dx;
+            o += dO;
+            xCount[line]=x;
+            oCount[line]=o;
+            if(x==k)
+                xLines++;
+            if(o==k)
+                oLines++;
+            xScore += values!=null ? values[x*(k+1)+o] : BoardGeometry.lineValue(x, o);
+        }
+    }
 
-        player[i][j] = players;
+    public BoardGeometry getGeometry()
+    {
+        return geometry;
     }
 
     public int getRow()
     {
-        return ROWS;
+        return rows;
     }
 
     public int getCol()
     {
-        return COLUMNS;
+        return cols;
+    }
+
+    public int getWinLength()
+    {
+        return geometry.winLength;
+    }
+
+    public int getCells()
+    {
+        return cells;
+    }
+
+    public int getStones()
+    {
+        return stones;
+    }
+
+    // the square most recently filled, or -1
+    public int getLastMove()
+    {
+        return lastMove;
     }
 
     public Player getValueAtSquare(int row, int column)
     {
-        return player[row][column];
+        return getValueAtCell(row*cols+column);
+    }
+
+    public Player getValueAtCell(int cell)
+    {
+        long bit = 1L<<cell;
+        if((xBits[cell>>>6] & bit)!=0)
+            return Player.X;
+        if((oBits[cell>>>6] & bit)!=0)
+            return Player.O;
+        return Player.EMPTY;
+    }
+
+    public boolean isEmpty(int row, int column)
+    {
+        return isEmptyCell(row*cols+column);
+    }
+
+    public boolean isEmptyCell(int cell)
+    {
+        int w = cell>>>6;
+        return ((xBits[w]|oBits[w]) & (1L<<cell))==0;
+    }
+
+    // true when a stone lies within BoardGeometry.NEIGHBOURHOOD steps of cell
+    public boolean hasNeighbour(int cell)
+    {
+        long[] near = geometry.neighbours[cell];
+        for(int w = 0; w< near.length; w++)
+        {
+            if((near[w] & (xBits[w]|oBits[w]))!=0)
+                return true;
+        }
+        return false;
+    }
+
+    // bit mask of a side on a board of at most 64 squares
+    public long getBits(Player player)
+    {
+        return getWord(player, 0);
+    }
+
+    public long getWord(Player player, int word)
+    {
+        switch(player)
+        {
+            case X:
+                return xBits[word];
+            case O:
+                return oBits[word];
+            case EMPTY:
+            default:
+                return getEmptyWord(word);
+        }
+    }
+
+    public long getEmptyWord(int word)
+    {
+        long empty = ~(xBits[word]|oBits[word]);
+        int used = cells - (word<<6);
+        return used>=64 ? empty : empty & ((1L<<used)-1);
+    }
+
+    public int getWords()
+    {
+        return xBits.length;
     }
 
     public boolean checkIfWinner(Player player)
     {
-        if(getValueAtSquare(0,0)== getValueAtSquare(1,0) && getValueAtSquare(1,0)== getValueAtSquare(2,0) &&getValueAtSquare(0,0)== player)
-            return true;
-        else if(getValueAtSquare(0,1)== getValueAtSquare(1,1) && getValueAtSquare(1,1)== getValueAtSquare(2,1) &&getValueAtSquare(0,1)== player)
-            return true;
-        else if(getValueAtSquare(0,2)== getValueAtSquare(1,2) && getValueAtSquare(1,2)== getValueAtSquare(2,2) &&getValueAtSquare(0,2)== player)
-            return true;
-        else if(getValueAtSquare(0,0)== getValueAtSquare(0,1) && getValueAtSquare(0,1)== getValueAtSquare(0,2) &&getValueAtSquare(0,0)== player)
-            return true;
-        else if(getValueAtSquare(1,0)== getValueAtSquare(1,1) && getValueAtSquare(1,1)== getValueAtSquare(1,2) &&getValueAtSquare(1,0)== player)
-            return true;
-        else if(getValueAtSquare(2,0)== getValueAtSquare(2,1) && getValueAtSquare(2,1)== getValueAtSquare(2,2) &&getValueAtSquare(2,0)== player)
-            return true;
-        else if(getValueAtSquare(0,0)== getValueAtSquare(1,1) && getValueAtSquare(1,1)== getValueAtSquare(2,2) &&getValueAtSquare(0,0)== player)
-            return true;
-        else if(getValueAtSquare(2,0)== getValueAtSquare(1,1) && getValueAtSquare(1,1)== getValueAtSquare(0,2) &&getValueAtSquare(2,0)== player)
-            return true;
-        else
+        if(player==Player.X)
+            return xLines>0;
+        if(player==Player.O)
+            return oLines>0;
+        return false;
+    }
+
+    // Only looks at the lines through the given square, so it costs O(k) rather than a
+    // scan of the whole board.
+    public boolean checkIfWinner(Player player, int row, int column)
+    {
+        return isWinningMove(player, row*cols+column);
+    }
+
+    public boolean isWinningMove(Player player, int cell)
+    {
+        if(player==Player.EMPTY)
             return false;
+        int[] count = player==Player.X ? xCount : oCount;
+        int k = geometry.winLength;
+        for(int line : geometry.cellLines[cell])
+        {
+            if(count[line]==k)
+                return true;
+        }
+        return false;
+    }
+
+    // Zobrist hash of the position with the side to move folded in, assuming X moved first
+    // and the sides took turns
+    public long getHash()
+    {
+        return (stones&1)==0 ? hash : hash^BoardGeometry.ZOBRIST_SIDE;
+    }
+
+    public long getHash(Player toMove)
+    {
+        return toMove==Player.O ? hash^BoardGeometry.ZOBRIST_SIDE : hash;
+    }
+
+    // Hash of the stones after applying the board symmetry BoardGeometry.symmetries[symmetry],
+    // without the side to move. The first call costs O(cells); after that the hashes of all
+    // symmetries are kept up to date with every stone, so each call is O(1).
+    public long getSymmetryHash(int symmetry)
+    {
+        if(symmetryHashes==null)
+        {
+            int[][] symmetries = geometry.symmetries;
+            long[] hashes = new long[symmetries.length];
+            for(int cell = 0; cell< cells; cell++)
+            {
+                long[] keys = (xBits[cell>>>6] & (1L<<cell))!=0 ? geometry.zobristX
+                        : (oBits[cell>>>6] & (1L<<cell))!=0 ? geometry.zobristO : null;
+                if(keys==null)
+                    continue;
+                for(int s = 0; s< hashes.length; s++)
+                    hashes[s] ^= keys[symmetries[s][cell]];
+            }
+            symmetryHashes=hashes;
+        }
+        return symmetryHashes[symmetry];
+    }
+
+    // stones player has on BoardGeometry.lines[line]
+    public int getLineStones(Player player, int line)
+    {
+        if(player==Player.X)
+            return xCount[line];
+        if(player==Player.O)
+            return oCount[line];
+        return 0;
+    }
+
+    // sum of the line values of BoardGeometry.LINE_SCORE, seen from player's side
+    public long getScore(Player player)
+    {
+        return player==Player.O ? -xScore : xScore;
+    }
+
+    // true when the last stone placed completed a line
+    public boolean lastMoveWins()
+    {
+        return lastMove>=0 && isWinningMove(getValueAtCell(lastMove), lastMove);
     }
 
 
@@ -72,11 +374,11 @@ public class Board
 
         String value="------------------------------------- \n";
         String count="";
-        for(int i = 0; i< ROWS; i++)
+        for(int i = 0; i< rows; i++)
         {
-            for(int j = 0; j< COLUMNS; j++)
+            for(int j = 0; j< cols; j++)
             {
-                char value2=player[i][j].getShortName();
+                char value2=getValueAtSquare(i,j).getShortName();
                 value=value+value2;
             }
             value=value+"\n";
@@ -88,15 +390,7 @@ public class Board
 
     public boolean boardIsFull()
     {
-        for(int i = 0; i< ROWS; i++)
-        {
-            for(int j = 0; j< COLUMNS; j++)
-            {
-                if (player[i][j] == Player.EMPTY)
-                    return false;
-            }
-        }
-            return true;
+        return stones==cells;
     }
 
 }
@@ -0,0 +1,184 @@
+
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Everything about an m,n,k board that does not change during a game: the winning lines,
+// the move ordering, neighbourhoods and symmetries. One instance is shared by every
+// Board of the same size.
+public final class BoardGeometry
+{
+   // directions scanned for k-in-a-row: across, down, diagonal, anti-diagonal
+   static final int[] DIRECTION_ROW = {0, 1, 1, 1};
+   static final int[] DIRECTION_COL = {1, 0, 1, -1};
+   // squares within this many steps of a stone are candidate moves on large boards
+   static final int NEIGHBOURHOOD = 2;
+   // a line holding n stones of one side only is worth LINE_SCORE[n] to that side
+   static final int[] LINE_SCORE = {0, 1, 10, 100, 1000, 10000, 100000};
+   // Zobrist keys come from a fixed seed, so a position hashes the same in every run
+   private static final long ZOBRIST_SEED = 0x7A0B815F3C2D6E91L;
+   static final long ZOBRIST_SIDE = new SplittableRandom(ZOBRIST_SEED).nextLong();
+
+   private static final ConcurrentHashMap<Long, BoardGeometry> CACHE = new ConcurrentHashMap<>();
+
+   final int rows;
+   final int cols;
+   final int winLength;
+   final int cells;
+   final int words;
+   final int[][] lines;          // every run of winLength cells, as cell indexes
+   final int[][] cellLines;      // per cell, the indexes of the lines through it
+   final int[] lineValues;       // lineValue(x, o) at x*(winLength+1)+o, only when winLength <= 63
+   final int[] moveOrder;
+   final long[][] neighbours;    // per cell, the cells within NEIGHBOURHOOD steps
+   final int[][] symmetries;     // permutation per symmetry: symmetries[s][cell] = image of cell
+   final long[] zobristX;        // per cell, the hash key of an X or an O stone on it
+   final long[] zobristO;
+   final int[][] inverses;
+
+   private BoardGeometry(int rows, int cols, int winLength)
+   {
+      this.rows = rows;
+      this.cols = cols;
+      this.winLength = winLength;
+      cells = rows*cols;
+      words = (cells+63) >>> 6;
+
+      int count = 0;
+      for (int d = 0; d < 4; d++)
+      {
+         for (int cell = 0; cell < cells; cell++)
+         {
+            if (fits(cell, d))
+               count++;
+         }
+      }
+      lines = new int[count][winLength];
+      int[] through = new int[cells];
+      count = 0;
+      for (int d = 0; d < 4; d++)
+      {
+         for (int cell = 0; cell < cells; cell++)
+         {
+            if (!fits(cell, d))
+               continue;
+            for (int i = 0; i < winLength; i++)
+            {
+               int r = cell/cols + i*DIRECTION_ROW[d];
+               int c = cell%cols + i*DIRECTION_COL[d];
+               lines[count][i] = r*cols + c;
+               through[r*cols + c]++;
+            }
+            count++;
+         }
+      }
+
+      cellLines = new int[cells][];
+      for (int cell = 0; cell < cells; cell++)
+      {
+         cellLines[cell] = new int[through[cell]];
+         through[cell] = 0;
+      }
+      for (int line = 0; line < lines.length; line++)
+      {
+         for (int cell : lines[line])
+         {
+            cellLines[cell][through[cell]++] = line;
+         }
+      }
+
+      lineValues = winLength <= 63 ? new int[(winLength+1)*(winLength+1)] : null;
+      for (int x = 0; lineValues != null && x <= winLength; x++)
+      {
+         for (int o = 0; o+x <= winLength; o++)
+         {
+            lineValues[x*(winLength+1) + o] = lineValue(x, o);
+         }
+      }
+
+      moveOrder = NegamaxSearch.buildMoveOrder(rows, cols);
+
+      neighbours = new long[cells][words];
+      for (int cell = 0; cell < cells; cell++)
+      {
+         int r = cell/cols, c = cell%cols;
+         for (int nr = Math.max(0, r-NEIGHBOURHOOD); nr <= Math.min(rows-1, r+NEIGHBOURHOOD); nr++)
+         {
+            for (int nc = Math.max(0, c-NEIGHBOURHOOD); nc <= Math.min(cols-1, c+NEIGHBOURHOOD); nc++)
+            {
+               int other = nr*cols + nc;
+               if (other != cell)
+                  neighbours[cell][other >>> 6] |= 1L << other;
+            }
+         }
+      }
+
+      symmetries = Symmetry.permutations(rows, cols);
+      SplittableRandom random = new SplittableRandom(ZOBRIST_SEED ^ ((long)rows << 40 | (long)cols << 20 | winLength));
+      zobristX = new long[cells];
+      zobristO = new long[cells];
+      for (int cell = 0; cell < cells; cell++)
+      {
+         zobristX[cell] = random.nextLong();
+         zobristO[cell] = random.nextLong();
+      }
+      inverses = new int[symmetries.length][cells];
+      for (int s = 0; s < symmetries.length; s++)
+      {
+         for (int cell = 0; cell < cells; cell++)
+         {
+            inverses[s][symmetries[s][cell]] = cell;
+         }
+      }
+   }
+
+   public static BoardGeometry of(int rows, int cols, int winLength)
+   {
+      if (rows < 1 || cols < 1 || rows*cols > 0xFFFF)
+         throw new IllegalArgumentException("Unsupported board size "+rows+"x"+cols);
+      if (winLength < 1 || winLength > Math.max(rows, cols))
+         throw new IllegalArgumentException("Win length "+winLength+" does not fit a "+rows+"x"+cols+" board");
+      long key = ((long)rows << 32) | ((long)cols << 16) | winLength;
+      return CACHE.computeIfAbsent(key, k -> new BoardGeometry(rows, cols, winLength));
+   }
+
+   private boolean fits(int cell, int d)
+   {
+      int endRow = cell/cols + (winLength-1)*DIRECTION_ROW[d];
+      int endCol = cell%cols + (winLength-1)*DIRECTION_COL[d];
+      return endRow >= 0 && endRow < rows && endCol >= 0 && endCol < cols;
+   }
+
+   public int getRows()
+   {
+      return rows;
+   }
+
+   public int getCols()
+   {
+      return cols;
+   }
+
+   public int getWinLength()
+   {
+      return winLength;
+   }
+
+   public int getCells()
+   {
+      return cells;
+   }
+
+   public int getLineCount()
+   {
+      return lines.length;
+   }
+
+   // value of a line with x X stones and o O stones on it, seen from X's side
+   static int lineValue(int x, int o)
+   {
+      if (x > 0)
+         return o > 0 ? 0 : LINE_SCORE[Math.min(x, LINE_SCORE.length-1)];
+      return -LINE_SCORE[Math.min(o, LINE_SCORE.length-1)];
+   }
+}
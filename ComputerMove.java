@@ -1,81 +1,58 @@
 
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class ComputerMove
+public class ComputerMove implements MoveStrategy, AutoCloseable
 {
 
+   public static final int DEFAULT_TABLE_BITS = 16;
+   // boards up to this size are searched to the end, larger ones against DEFAULT_MOVE_TIME_MILLIS
+   public static final int FULL_SEARCH_CELLS = 16;
+   public static final long DEFAULT_MOVE_TIME_MILLIS = 1000;
    private boolean computerTurn=true;
+   private boolean useNegamax=true;
+   private NegamaxSearch negamax = new NegamaxSearch();
+   // One instance may serve many games at once (see GameServer). The first caller uses
+   // negamax; callers that find it busy take a copy from the idle queue, so a search's
+   // scratch state is never shared while the transposition table always is.
+   private final AtomicBoolean negamaxBusy = new AtomicBoolean();
+   private final ConcurrentLinkedQueue<NegamaxSearch> idleSearches = new ConcurrentLinkedQueue<>();
+   // the Lazy SMP helper threads of negamax and every copy, made by setSearchThreads and
+   // ended by close(); null with one thread per search
+   private volatile ExecutorService helpers = null;
+   // the old minimax engine's results, and its move buffers, one per ply of MINIMAX_DEPTH;
+   // both are only made if that engine is switched on
+   private static final int MINIMAX_DEPTH = 2;
+   private SearchContext context = null;
+   private int[][] minimaxMoves = null;
+   private TranspositionTable table = new TranspositionTable(DEFAULT_TABLE_BITS);
+   private MoveTable moveTable = null;
+   private Tablebase tablebase = null;
+   // when set, picks every move instead of the built-in engines
+   private MoveStrategy strategy = null;
 
    public ComputerMove()
    {
-   }
-
-   private int evaluateLine(Player player,Board board,int row1, int col1, int row2, int col2, int row3, int col3)
-   {
-      int score = 0;
-
-      // First cell
-      if (board.getValueAtSquare(row1,col1) == player)
+      negamax.setTranspositionTable(table);
+      moveTable = MoveTable.load(new File(System.getProperty("tictactoe.movetable", MoveTable.DEFAULT_FILE)));
+      tablebase = Tablebase.load(new File(System.getProperty("tictactoe.tablebase", Tablebase.DEFAULT_FILE)));
+      // -Dtictactoe.model=<file> plays a model written by SelfPlayTrainer
+      String model = System.getProperty("tictactoe.model");
+      if(model!=null)
       {
-         score = 1;
-      }
-      else if (board.getValueAtSquare(row1,col1) == player.getOtherColor())
-      {
-         score = -1;
-      }
-
-      // Second cell
-      if (board.getValueAtSquare(row2,col2) == player)
-      {
-         if (score == 1) {   // cell1 is mySeed
-            score = 10;
-         } else if (score == -1) {
-            return 0;
-         } else {
-            score = 1;
-         }
-      } else if (board.getValueAtSquare(row2,col2) == player.getOtherColor()) {
-         if (score == -1) {
-            score = -10;
-         } else if (score == 1) {
-            return 0;
-         } else {
-            score = -1;
-         }
-      }
-
-      // Third cell
-      if (board.getValueAtSquare(row3,col3) == player)
-      {
-         if (score > 0)
-         {
-            score *= 10;
-         }
-         else if (score < 0)
-         {
-            return 0;
-         }
-         else
+         try
          {
-            score = 1;
+            strategy = LearnedStrategy.load(new File(model));
          }
-      }
-      else if
-            (board.getValueAtSquare(row3,col3) == player.getOtherColor())
-      {
-         if (score < 0)
+         catch(IOException e)
          {
-            score *= 10;
-         } else if (score > 1)
-         {
-            return 0;
-         } else {
-            score = -1;
+            System.err.println("Could not load the model: "+e.getMessage());
          }
       }
-      return score;
    }
 
 //   public int score(Board game, int depth, Player player)
@@ -140,116 +117,209 @@ public class ComputerMove
 //      return new int[] {bestScore, bestRow, bestCol};
 //   }
 
-   private int evaluate(Board board, Player player) {
-      int score = 0;
-      // Evaluate score for each of the 8 lines (3 rows, 3 columns, 2 diagonals)
-      score += evaluateLine(player,board,0, 0, 0, 1, 0, 2);  // row 0
-      score += evaluateLine(player,board,1, 0, 1, 1, 1, 2);  // row 1
-      score += evaluateLine(player,board,2, 0, 2, 1, 2, 2);  // row 2
-      score += evaluateLine(player,board,0, 0, 1, 0, 2, 0);  // col 0
-      score += evaluateLine(player,board,0, 1, 1, 1, 2, 1);  // col 1
-      score += evaluateLine(player,board,0, 2, 1, 2, 2, 2);  // col 2
-      score += evaluateLine(player,board,0, 0, 1, 1, 2, 2);  // diagonal
-      score += evaluateLine(player,board,0, 2, 1, 1, 2, 0);  // alternate diagonal
-
-      return score;
+   // the lines are scored by Board as stones come and go, so this costs O(1)
+   static int evaluate(Board board, Player player) {
+      long score = board.getScore(player);
+      // keep heuristic scores clear of the win/loss range
+      return (int)Math.max(-NegamaxSearch.WIN_THRESHOLD+1, Math.min(NegamaxSearch.WIN_THRESHOLD-1, score));
    }
-   private List<int[]> generateMoves(Board board, Player player)
+   // fills buffer with the empty cells and returns how many there are, none once player
+   // has a line; Perft checks it against the known game counts
+   static int generateMoves(Board board, Player player, int[] buffer)
    {
-      List<int[]> nextMoves = new ArrayList<>(); // allocate List
-
-
       if (board.checkIfWinner(player))
       {
-         return nextMoves;
-
+         return 0;
       }
 
-      for (int row = 0; row < 3; ++row)
+      int count = 0;
+      for (int w = 0; w < board.getWords(); w++)
       {
-         for (int col = 0; col < 3; ++col)
+         for (long empty = board.getEmptyWord(w); empty != 0; empty &= empty-1)
          {
-            if ( board.getValueAtSquare(row,col)== Player.EMPTY)
-            {
-               nextMoves.add(new int[] {row, col});
-            }
+            buffer[count++] = (w<<6) + Long.numberOfTrailingZeros(empty);
          }
       }
-      return nextMoves;
+      return count;
    }
-      private int[] minimax(int depth, Player player,Board board)
+      // returns the score; the best root move is left in context.bestMove
+      private int minimax(int depth, Player player,Board board, int ply)
       {
-         // Generate possible next moves in a List of int[2] of {row, col}.
-         List<int[]> nextMoves = generateMoves(board,player);
+         int[] nextMoves = minimaxMoves[ply];
+         int moveCount = generateMoves(board,player,nextMoves);
+         context.nodes++;
 
          // mySeed is maximizing; while oppSeed is minimizing
          int bestScore = (player == player.getColor()) ? Integer.MIN_VALUE : Integer.MAX_VALUE;
          int currentScore;
-         int bestRow = -1;
-         int bestCol = -1;
+         int bestCell = -1;
 
-         if (nextMoves.isEmpty() || depth == 0)
+         if (moveCount == 0 || depth == 0)
          {
             // Gameover or depth reached, evaluate score
             bestScore = evaluate(board,player);
          }
          else
          {
-            for (int[] move : nextMoves)
+            for (int i = 0; i < moveCount; i++)
             {
+               int move = nextMoves[i];
                // Try this move for the current "player"
-              // cells[move[0]][move[1]].content = player;
-               board.setBoard(player,move[0],move[1] );
+               board.setCell(player,move);
                if (player == player.getColor())
                {  // mySeed (computer) is maximizing player
-                  currentScore = minimax(depth-1, player.getOtherColor(), board)[0];
+                  currentScore = minimax(depth-1, player.getOtherColor(), board, ply+1);
                   if (currentScore > bestScore)
                   {
                      bestScore = currentScore;
-                     bestRow = move[0];
-                     bestCol = move[1];
+                     bestCell = move;
                   }
                }
                else
                {  // oppSeed is minimizing player
-                  currentScore = minimax(depth-1, player.getColor(),board)[0];
+                  currentScore = minimax(depth-1, player.getColor(),board, ply+1);
                   if (currentScore < bestScore)
                   {
                      bestScore = currentScore;
-                     bestRow = move[0];
-                     bestCol = move[1];
+                     bestCell = move;
                   }
                }
                // Undo move
-               //cells[move[0]][move[1]].content = player.EMPTY;
-               board.setBoard(player.EMPTY,move[0],move[1] );
+               board.setCell(Player.EMPTY,move);
             }
          }
-         return new int[] {bestScore, bestRow, bestCol};
+         if (ply == 0)
+         {
+            context.bestMove = bestCell;
+            context.bestScore = bestScore;
+         }
+         return bestScore;
       }
 
 
    int[] move(Player player,Board board)
    {
-      int[] result = minimax(2,player,board);
-      return new int[] {result[1], result[2]};
+      int cell = moveCell(player,board);
+      return new int[] {cell/board.getCol(), cell%board.getCol()};
+   }
 
+   @Override public int chooseMove(Player player, Board board)
+   {
+      return moveCell(player,board);
    }
 
-  public void smartComputerMove(Player player,Board board)
+   // for a move queued to be searched later: reserve its number when it is queued, so a
+   // cancelSearch() in between stops it too
+   public long reserveMove()
+   {
+      return negamax.reserveSearch();
+   }
+   public int chooseMove(Player player, Board board, long number)
    {
-      int[] temp =move(player,board);
-      int xNew =temp[0];
-      int yNew =temp[1];
-      board.setBoard(player,xNew,yNew);
+      return moveCell(player,board,number);
+   }
 
+   int moveCell(Player player,Board board)
+   {
+      return moveCell(player,board,negamax.reserveSearch());
+   }
+
+   // best move as a cell index; a full-depth negamax search is answered from the move table
+   // or the tablebase when one for the board is loaded
+   int moveCell(Player player,Board board,long number)
+   {
+      if(strategy!=null)
+      {
+         // a strategy that cannot play this board, such as a model trained for another size,
+         // leaves the move to the built-in engines
+         int cell = strategy.chooseMove(player,board);
+         if(cell>=0 || board.boardIsFull())
+            return cell;
+      }
+      if(!useNegamax)
+      {
+         synchronized(this)
+         {
+            if(context==null || !context.fits(board))
+            {
+               context = new SearchContext(board.getCells());
+               minimaxMoves = new int[MINIMAX_DEPTH+1][board.getCells()];
+            }
+            context.reset();
+            minimax(MINIMAX_DEPTH,player,board,0);
+            return context.bestMove;
+         }
+      }
+      SearchMetrics metrics = negamax.getMetrics();
+      long started = metrics!=null ? System.nanoTime() : 0;
+      if(moveTable!=null && negamax.getMaxDepth()>=board.getCells())
+      {
+         int cell = moveTable.bestMove(board,player);
+         if(cell>=0)
+            return lookedUp(metrics,started,cell);
+      }
+      if(tablebase!=null && negamax.getMaxDepth()>=board.getCells() && tablebase.fits(board))
+      {
+         int cell = tablebase.bestMove(board,player);
+         if(cell>=0)
+            return lookedUp(metrics,started,cell);
+      }
+      if(negamaxBusy.compareAndSet(false,true))
+      {
+         try
+         {
+            return negamax.findBestMove(player,board,number);
+         }
+         finally
+         {
+            negamaxBusy.set(false);
+         }
+      }
+      NegamaxSearch search = idleSearches.poll();
+      if(search==null)
+      {
+         search = new NegamaxSearch();
+         search.setCancellation(negamax.getCancellation());
+      }
+      try
+      {
+         // settings may have changed since the copy last ran
+         search.setTranspositionTable(negamax.getTranspositionTable());
+         search.setMaxDepth(negamax.getMaxDepth());
+         search.setTimeBudget(negamax.getTimeBudget());
+         search.setNodeBudget(negamax.getNodeBudget());
+         // copies only ever use the shared helpers, never a pool of their own
+         ExecutorService pool = helpers;
+         search.setHelperExecutor(pool);
+         search.setThreads(pool!=null ? negamax.getThreads() : 1);
+         search.setMetrics(negamax.getMetrics());
+         return search.findBestMove(player,board,number);
+      }
+      finally
+      {
+         idleSearches.offer(search);
+      }
+   }
+
+   private static int lookedUp(SearchMetrics metrics,long started,int cell)
+   {
+      if(metrics!=null)
+         metrics.recordLookup(System.nanoTime()-started);
+      return cell;
+   }
+
+  public void smartComputerMove(Player player,Board board)
+   {
+      int cell = moveCell(player,board);
+      if(cell>=0)
+         board.setCell(player,cell);
    }
    public boolean makeMove(Player player, Board board)
    {
       if(computerTurn)
       {
          smartComputerMove(player,board);
-         if(board.checkIfWinner(player))
+         if(board.lastMoveWins())
          {
             return true;
 
@@ -265,5 +335,118 @@ public class ComputerMove
       computerTurn= setTurn;
    }
 
+   // null goes back to the built-in engines
+   public void setStrategy(MoveStrategy strategy)
+   {
+      this.strategy = strategy;
+   }
+   public MoveStrategy getStrategy()
+   {
+      return strategy;
+   }
+
+   // true selects the alpha-beta negamax engine, false the old depth-2 minimax
+   public void setUseNegamax(boolean negamax)
+   {
+      useNegamax= negamax;
+   }
+   public boolean getUseNegamax()
+   {
+      return useNegamax;
+   }
+   public void setSearchDepth(int depth)
+   {
+      negamax.setMaxDepth(depth);
+   }
+   public int getSearchDepth()
+   {
+      return negamax.getMaxDepth();
+   }
+   // per-move budgets for the negamax engine, 0 for none; see NegamaxSearch.setTimeBudget
+   public void setMoveTimeBudget(long millis)
+   {
+      negamax.setTimeBudget(millis);
+   }
+   public long getMoveTimeBudget()
+   {
+      return negamax.getTimeBudget();
+   }
+   public void setMoveNodeBudget(long nodes)
+   {
+      negamax.setNodeBudget(nodes);
+   }
+   public long getMoveNodeBudget()
+   {
+      return negamax.getNodeBudget();
+   }
+   // threads used by each negamax search; see NegamaxSearch.setThreads. The helpers of
+   // searches running at once share threads-1 pool threads, so with many games in play the
+   // later searches find them busy and go on alone.
+   public synchronized void setSearchThreads(int threads)
+   {
+      ExecutorService old = helpers;
+      helpers = threads>1 ? NegamaxSearch.newHelperPool(threads-1) : null;
+      negamax.setHelperExecutor(helpers);
+      negamax.setThreads(threads);
+      if(old!=null)
+         old.shutdown();
+   }
+   // ends the helper threads; the engine still plays afterwards, one thread per search
+   @Override public void close()
+   {
+      setSearchThreads(1);
+   }
+   public int getSearchThreads()
+   {
+      return negamax.getThreads();
+   }
+   // makes every running or reserved search return its best move so far; the searches
+   // share one NegamaxSearch.Cancellation
+   public void cancelSearch()
+   {
+      negamax.cancel();
+   }
+   public int getLastSearchDepth()
+   {
+      return negamax.getCompletedDepth();
+   }
+   // counters and latencies of every negamax search; see SearchMetrics
+   public void setMetrics(SearchMetrics metrics)
+   {
+      negamax.setMetrics(metrics);
+   }
+   public SearchMetrics getMetrics()
+   {
+      return negamax.getMetrics();
+   }
+   // resizes (and empties) the table shared by every move this instance makes
+   public void setTranspositionTableBits(int log2Entries)
+   {
+      table = new TranspositionTable(log2Entries);
+      negamax.setTranspositionTable(table);
+   }
+   public TranspositionTable getTranspositionTable()
+   {
+      return table;
+   }
+   // null disables the table and every move is searched
+   public void setMoveTable(MoveTable moveTable)
+   {
+      this.moveTable = moveTable;
+   }
+   public MoveTable getMoveTable()
+   {
+      return moveTable;
+   }
+   // perfect play on the tablebase's board size; null for none
+   public void setTablebase(Tablebase tablebase)
+   {
+      this.tablebase = tablebase;
+   }
+   public Tablebase getTablebase()
+   {
+      return tablebase;
+   }
+
 
 }
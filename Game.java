@@ -1,5 +1,7 @@
 
 
+import java.util.Arrays;
+
 public class Game
 {
    private TicTacToeUI gui;
@@ -8,12 +10,83 @@ public class Game
    private boolean tie=false;
    private boolean winner=false;
    private Player gameWinner;
+   // the cells played so far in this game, in order, -1 for a pass
+   private int[] moves;
+   private int moveCount=0;
+   private int stones=0;
+   private GameListener[] listeners=new GameListener[0];
+   private int mode=GameLog.HUMAN_VS_COMPUTER;
+   private int xPlayer=0;
+   private int oPlayer=0;
 
    public Game(TicTacToeUI ticTacToeUI)
+   {
+      this(ticTacToeUI, Board.ROWS, Board.COLUMNS, Board.WIN_LENGTH);
+   }
+   // a game without a user interface; moves come from playGame/computerPlayGame only
+   public Game(int rows, int columns, int winLength)
+   {
+      this(null, rows, columns, winLength);
+   }
+   public Game(TicTacToeUI ticTacToeUI, int rows, int columns, int winLength)
+   {
+      this(ticTacToeUI, rows, columns, winLength, new ComputerMove());
+      if(rows*columns > ComputerMove.FULL_SEARCH_CELLS)
+         computer.setMoveTimeBudget(ComputerMove.DEFAULT_MOVE_TIME_MILLIS);
+   }
+   // a game using an engine that may be shared with other games, as it is in GameServer
+   public Game(TicTacToeUI ticTacToeUI, int rows, int columns, int winLength, ComputerMove computer)
    {
       gui= ticTacToeUI;
-      move= new MakeMove();
-      computer =new ComputerMove();
+      move= new MakeMove(rows, columns, winLength);
+      this.computer =computer;
+      moves=new int[rows*columns];
+   }
+   // upper bound on how long one computer move may think, 0 for no limit
+   public void setComputerTimeBudget(long millis)
+   {
+      computer.setMoveTimeBudget(millis);
+   }
+   public long getComputerTimeBudget()
+   {
+      return computer.getMoveTimeBudget();
+   }
+   public void setComputerNodeBudget(long nodes)
+   {
+      computer.setMoveNodeBudget(nodes);
+   }
+   public void setComputerThreads(int threads)
+   {
+      computer.setSearchThreads(threads);
+   }
+   // e.g. a MonteCarloTreeSearch; null restores the negamax engine
+   public void setComputerStrategy(MoveStrategy strategy)
+   {
+      computer.setStrategy(strategy);
+   }
+   public MoveStrategy getComputerStrategy()
+   {
+      return computer.getStrategy();
+   }
+   public void cancelComputerMove()
+   {
+      computer.cancelSearch();
+   }
+   public ComputerMove getComputer()
+   {
+      return computer;
+   }
+   // clears the board and the result for the next game; a game left unfinished is still
+   // reported to the listeners
+   public void newGame()
+   {
+      if(moveCount>0 && !tie && !winner)
+         gameEnded();
+      moveCount=0;
+      stones=0;
+      move.getBoard().refreshBoard();
+      setTie(false);
+      setWinner(false, Player.EMPTY);
    }
    public Board getBoard()
    {
@@ -42,7 +115,14 @@ public class Game
    }
    private boolean gameStatus(MakeMove move, Player player, boolean win)
    {
-      if(move.getBoard().boardIsFull() ||win)
+      Board board = move.getBoard();
+      // a turn that placed no stone is a pass, kept so that a replay gives every move to the
+      // right side
+      if(moveCount==moves.length)
+         moves=Arrays.copyOf(moves, 2*moves.length+1);
+      moves[moveCount++]= board.getStones()>stones ? board.getLastMove() : -1;
+      stones=board.getStones();
+      if(board.boardIsFull() ||win)
       {
          if(win)
          {
@@ -51,22 +131,99 @@ public class Game
          }
          else
             setTie(true);
+         gameEnded();
          return false;
       }
       return true;
    }
 
+   // e.g. a GameLog.Writer or a RatingService; told in the order they were added
+   public void addGameListener(GameListener listener)
+   {
+      GameListener[] more=new GameListener[listeners.length+1];
+      System.arraycopy(listeners, 0, more, 0, listeners.length);
+      more[listeners.length]=listener;
+      listeners=more;
+   }
+   private void gameEnded()
+   {
+      for(GameListener listener : listeners)
+      {
+         listener.gameEnded(this);
+      }
+   }
+   // who is playing, for the game log: mode is one of the GameLog modes, the players are ids
+   public void setMode(int mode)
+   {
+      this.mode=mode;
+   }
+   public int getMode()
+   {
+      return mode;
+   }
+   public void setPlayers(int xPlayer, int oPlayer)
+   {
+      this.xPlayer=xPlayer;
+      this.oPlayer=oPlayer;
+   }
+   public int getXPlayer()
+   {
+      return xPlayer;
+   }
+   public int getOPlayer()
+   {
+      return oPlayer;
+   }
+   public int getMoveCount()
+   {
+      return moveCount;
+   }
+   public int getMove(int index)
+   {
+      return moves[index];
+   }
+   // one of GameLog.DRAW, X_WINS, O_WINS or UNFINISHED
+   public int getResult()
+   {
+      if(tie)
+         return GameLog.DRAW;
+      if(winner)
+         return gameWinner==Player.X ? GameLog.X_WINS : GameLog.O_WINS;
+      return GameLog.UNFINISHED;
+   }
+
    public boolean computerPlayGame(Player player)
    {
       boolean win=computer.makeMove(player,move.getBoard());
       return gameStatus(move,player,win);
    }
 
+   // lets any engine move for player; returns false once the game is over
+   public boolean playGame(Player player, MoveStrategy strategy)
+   {
+      return playMove(player, strategy.chooseMove(player,move.getBoard()));
+   }
+
+   // places player's stone on cell, or passes when cell is negative; returns false once the game is over
+   public boolean playMove(Player player, int cell)
+   {
+      Board board = move.getBoard();
+      boolean win = false;
+      if(cell>=0)
+      {
+         board.setCell(player,cell);
+         win = board.isWinningMove(player,cell);
+      }
+      return gameStatus(move,player,win);
+   }
+
    public boolean humanPlayGame(Player player)
    {
       boolean win;
 
          int value = gui.getUserMove(player);
+         if(value==TicTacToeUI.NO_MOVE)
+            return true;
          win =  move.makeMove(value, player);
 
       return gameStatus(move,player,win);
@@ -0,0 +1,179 @@
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+
+// Drives a game from GUI events. Every event is handled on the event dispatch thread, so the
+// game state needs no locking; the computer's move is searched on a background thread on a
+// copy of the board and comes back as an AI_MOVE_READY event. Results that arrive after a
+// reset or a mode switch carry an old game number and are dropped.
+public class GameController
+{
+   public enum Event { MOVE_SUBMITTED, AI_MOVE_READY, RESET, MODE_SWITCH }
+
+   public enum State { HUMAN_TURN, AI_TURN, GAME_OVER }
+
+   // player ids written to the game log
+   public static final int LOCAL_PLAYER = 0, COMPUTER_PLAYER = 1, GUEST_PLAYER = 2;
+
+   private final Game game;
+   private final GameGUI gui;
+   private final ExecutorService ai = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "ai-move");
+      thread.setDaemon(true);
+      return thread;
+   });
+
+   // only touched on the event dispatch thread
+   private State state = State.GAME_OVER;
+   private Player toMove = Player.X;
+   private int gameNumber = 0;
+
+   public GameController(Game game, GameGUI gui)
+   {
+      this.game = game;
+      this.gui = gui;
+      gui.setController(this);
+   }
+
+   public void start()
+   {
+      post(Event.RESET, 0, 0);
+   }
+
+   // value is the square's number, 1..rows*columns
+   public void moveSubmitted(int value)
+   {
+      post(Event.MOVE_SUBMITTED, value, 0);
+   }
+
+   public void reset()
+   {
+      post(Event.RESET, 0, 0);
+   }
+
+   public void switchMode(boolean againstComputer)
+   {
+      post(Event.MODE_SWITCH, againstComputer ? 1 : 0, 0);
+   }
+
+   public State getState()
+   {
+      return state;
+   }
+
+   private void post(Event event, int value, int number)
+   {
+      SwingUtilities.invokeLater(() -> handle(event, value, number));
+   }
+
+   private void handle(Event event, int value, int number)
+   {
+      switch (event)
+      {
+         case MOVE_SUBMITTED:
+         {
+            int cell = value-1;
+            if (state == State.HUMAN_TURN && cell >= 0 && cell < game.getBoard().getCells()
+                  && game.getBoard().isEmptyCell(cell))
+               play(cell);
+            break;
+         }
+         case AI_MOVE_READY:
+            if (state == State.AI_TURN && number == gameNumber)
+               play(value);
+            break;
+         case MODE_SWITCH:
+            gui.computerPlayer = value != 0;
+            newGame();
+            break;
+         case RESET:
+            newGame();
+            break;
+      }
+   }
+
+   private void newGame()
+   {
+      gameNumber++;
+      game.cancelComputerMove();
+      game.newGame();
+      game.setMode(gui.computerPlayer ? GameLog.HUMAN_VS_COMPUTER : GameLog.HUMAN_VS_HUMAN);
+      game.setPlayers(LOCAL_PLAYER, gui.computerPlayer ? COMPUTER_PLAYER : GUEST_PLAYER);
+      toMove = Player.X;
+      gui.displayBoard(game.getBoard());
+      nextTurn();
+   }
+
+   private void play(int cell)
+   {
+      boolean going = game.playMove(toMove, cell);
+      gui.displayBoard(game.getBoard());
+      if (!going)
+      {
+         gameOver();
+         return;
+      }
+      toMove = toMove.getOtherColor();
+      nextTurn();
+   }
+
+   private void nextTurn()
+   {
+      gui.showTurn(toMove);
+      if (gui.computerPlayer && toMove == Player.O)
+      {
+         state = State.AI_TURN;
+         Board board = new Board(game.getBoard());
+         Player player = toMove;
+         int number = gameNumber;
+         // reserved now so that a New Game before the task runs cancels it
+         long search = game.getComputer().reserveMove();
+         ai.execute(() -> post(Event.AI_MOVE_READY, searchMove(player, board, search), number));
+      }
+      else
+         state = State.HUMAN_TURN;
+   }
+
+   // runs on the AI thread; a failed search passes rather than leaving the game stuck
+   private int searchMove(Player player, Board board, long search)
+   {
+      try
+      {
+         return game.getComputer().chooseMove(player, board, search);
+      }
+      catch (RuntimeException e)
+      {
+         e.printStackTrace();
+         return -1;
+      }
+   }
+
+   private void gameOver()
+   {
+      state = State.GAME_OVER;
+      AccountInformation account = gui.account;
+      boolean againstComputer = gui.computerPlayer;
+      int opponent = againstComputer ? COMPUTER_PLAYER : GUEST_PLAYER;
+      PlayerStatsStore stats = account.getStore();
+      String message;
+      if (game.gameIsTie())
+      {
+         account.recordGame(againstComputer, PlayerStatsStore.DRAW);
+         stats.recordGame(opponent, againstComputer, PlayerStatsStore.DRAW);
+         message = "The game is a tie";
+      }
+      else
+      {
+         // the local player is X
+         boolean won = game.getGameWinner() == Player.X;
+         account.recordGame(againstComputer, won ? PlayerStatsStore.WIN : PlayerStatsStore.LOSS);
+         stats.recordGame(opponent, againstComputer, won ? PlayerStatsStore.LOSS : PlayerStatsStore.WIN);
+         message = "the winner is: "+game.getGameWinner();
+      }
+      if (gui.doYouWantToPlayAgain(message) != 0)
+         System.exit(0);
+      newGame();
+   }
+}
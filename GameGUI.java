@@ -2,6 +2,8 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import java.awt.Color;
 import javax.swing.JPanel;
@@ -11,14 +13,17 @@ import javax.swing.JButton;
 public class
 GameGUI extends JPanel implements TicTacToeUI
 {
-   private volatile boolean buttonPressed = false;
-   private volatile int indexOfButtonPressed;
-   boolean computerPlayer = true;
+   // squares clicked by the user, or NO_MOVE to wake up a waiting getUserMove
+   private final BlockingQueue<Integer> moves = new LinkedBlockingQueue<>();
+   volatile boolean computerPlayer = true;
+   private volatile GameController controller;
    private volatile boolean resetGame = false;
 
    private JLabel topMessage = new JLabel();
    private JLabel bottomMessage;
-   private JButton[][] buttons = new JButton[3][3];
+   private final int rows;
+   private final int columns;
+   private JButton[][] buttons;
    public AccountInformation account = new AccountInformation();
 
    private JMenuBar theMenuBar = new JMenuBar();
@@ -29,6 +34,14 @@ GameGUI extends JPanel implements TicTacToeUI
 
    public GameGUI()
    {
+      this(Board.ROWS, Board.COLUMNS);
+   }
+
+   public GameGUI(int rows, int columns)
+   {
+      this.rows = rows;
+      this.columns = columns;
+      buttons = new JButton[rows][columns];
       setTypePlayer();
 
       Panel topMessagePanel = new Panel();
@@ -59,6 +72,7 @@ GameGUI extends JPanel implements TicTacToeUI
       frame.setJMenuBar(this.theMenuBar);
       frame.add(panel);
 
+      frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
       frame.setTitle("TicTacTamba");
       frame.setSize(950, 920);
       frame.setVisible(true);
@@ -87,19 +101,20 @@ GameGUI extends JPanel implements TicTacToeUI
    private Panel addButtonToPanel()
    {
       Panel panel = new Panel();
-      panel.setLayout(new GridLayout(3, 1, 2, 3));
-      Font font = new Font("Courier", Font.BOLD, 90);
+      panel.setLayout(new GridLayout(rows, columns, 2, 3));
+      int size = Math.max(rows, columns);
+      Font font = new Font("Courier", Font.BOLD, Math.max(12, 270/size));
       panel.setBackground(Color.magenta);
       int count = 0;
-      for (int i = 0; i < 3; i++)
+      for (int i = 0; i < rows; i++)
       {
-         for (int j = 0; j < 3; j++)
+         for (int j = 0; j < columns; j++)
          {
             count++;
             buttons[i][j] = new JButton("" + count);
             panel.add(buttons[i][j]);
             buttons[i][j].addActionListener(new ButtonsClick());
-            buttons[i][j].setPreferredSize(new Dimension(145, 140));
+            buttons[i][j].setPreferredSize(new Dimension(Math.max(30, 435/size), Math.max(30, 420/size)));
             buttons[i][j].setForeground(Color.BLACK);
             buttons[i][j].setFont(font);
 
@@ -119,9 +134,9 @@ GameGUI extends JPanel implements TicTacToeUI
    @Override public void displayBoard(Board board)
    {
       int count =0;
-      for (int i=0; i<3; i++)
+      for (int i=0; i<rows; i++)
       {
-         for(int j=0; j<3; j++)
+         for(int j=0; j<columns; j++)
          {
             count++;
             if(board.getValueAtSquare(i,j) ==Player.X || board.getValueAtSquare(i,j)  ==Player.O)
@@ -137,8 +152,25 @@ GameGUI extends JPanel implements TicTacToeUI
 
    @Override public int getUserMove(Player player)
    {
+      showTurn(player);
+      // clicks made while it was not the user's turn are dropped; a reset requested before
+      // the clear is seen through the flag, one requested after it arrives through the queue
+      moves.clear();
+      if(resetGame)
+         return NO_MOVE;
+      try
+      {
+         return moves.take();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return NO_MOVE;
+      }
+   }
 
-
+   public void showTurn(Player player)
+   {
       if(computerPlayer)
       {
          bottomMessage.setText(account.toString(1));
@@ -157,15 +189,18 @@ GameGUI extends JPanel implements TicTacToeUI
             topMessage.setText("You"+"-"+player.getColor() + " turn.");
 
       }
-      while (!buttonPressed && !resetGame)
-      {
-         //Do nothing
-
-      }
+   }
 
-      buttonPressed = false;
-      return indexOfButtonPressed;
+   // once set, clicks and menu choices go to the controller instead of getUserMove
+   public void setController(GameController controller)
+   {
+      this.controller = controller;
+   }
 
+   // wakes up a getUserMove that is waiting, which then returns NO_MOVE
+   public void cancelUserMove()
+   {
+      moves.offer(NO_MOVE);
    }
 
    @Override public boolean resetGame()
@@ -179,8 +214,13 @@ GameGUI extends JPanel implements TicTacToeUI
       public void actionPerformed(ActionEvent e)
 
       {
+         if(controller!=null)
+         {
+            controller.switchMode(true);
+            return;
+         }
          computerPlayer=true;
-         resetGame = true;
+         setResetGame(true);
 
       }
 
@@ -192,8 +232,13 @@ GameGUI extends JPanel implements TicTacToeUI
       public void actionPerformed(ActionEvent e)
 
       {
+         if(controller!=null)
+         {
+            controller.switchMode(false);
+            return;
+         }
          computerPlayer=false;
-         resetGame = true;
+         setResetGame(true);
       }
 
    }
@@ -212,6 +257,8 @@ GameGUI extends JPanel implements TicTacToeUI
    public void setResetGame(boolean reset)
    {
       resetGame = reset;
+      if(reset)
+         cancelUserMove();
    }
    private class ButtonsClick implements ActionListener
    {
@@ -220,8 +267,10 @@ GameGUI extends JPanel implements TicTacToeUI
          String newValue= ((JButton)e.getSource()).getText();
          if((int)newValue.charAt(0)>=49 && (int)newValue.charAt(0)<=57)
          {
-            indexOfButtonPressed = Integer.valueOf(newValue);
-            buttonPressed = true;
+            if(controller!=null)
+               controller.moveSubmitted(Integer.parseInt(newValue));
+            else
+               moves.offer(Integer.valueOf(newValue));
 
          }
 
@@ -0,0 +1,7 @@
+
+
+// Told about every game a Game finishes, and about a game abandoned by starting a new one
+public interface GameListener
+{
+   void gameEnded(Game game);
+}
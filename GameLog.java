@@ -0,0 +1,377 @@
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Append-only binary record of finished games. After an 8-byte file header ("TTL1" and a
+// version) every game is
+//   flags      1 byte: result in bits 0-1, mode in bits 2-4, bit 7 set for a non-3x3 board
+//   X player   varint
+//   O player   varint
+//   timestamp  varint, milliseconds since the epoch
+//   size       varint rows, columns, winLength, only when bit 7 is set
+//   moves      varint count, then on 3x3 two cells per byte (first move in the low nibble),
+//              otherwise one varint cell index per move; a pass is 15 on 3x3 and
+//              rows*columns otherwise
+// so a typical 3x3 game takes about 15 bytes. Version 1 logs are the same without passes.
+public class GameLog
+{
+   public static final String DEFAULT_FILE = "games.log";
+
+   public static final int DRAW = 0, X_WINS = 1, O_WINS = 2, UNFINISHED = 3;
+   public static final int HUMAN_VS_COMPUTER = 0, HUMAN_VS_HUMAN = 1, SELF_PLAY = 2, SERVER = 3;
+
+   private static final int MAGIC = 0x54544C31;   // "TTL1"
+   private static final int VERSION = 2;
+   private static final int HEADER_BYTES = 8;
+   private static final int GENERAL_SIZE = 0x80;
+   private static final int CLASSIC_PASS = 0xF;
+   // bound on one encoded game: flags, ids, timestamp, size and maxMoves(0xFFFF) three-byte
+   // cells
+   private static final int MAX_RECORD_BYTES = 512 * 1024;
+   // the reader maps the file this much at a time
+   private static final long WINDOW_BYTES = 1L << 30;
+
+   private GameLog()
+   {
+   }
+
+   // Called once per game by read(). moves holds moveCount cell indexes, -1 for a pass, and
+   // is reused for the next game, so copy it if it has to outlive the call.
+   public interface Visitor
+   {
+      void game(int mode, int xPlayer, int oPlayer, int result, long timestamp,
+            int rows, int columns, int winLength, int[] moves, int moveCount);
+   }
+
+   // Appends games to a log, in batches of up to BATCH_BYTES. Safe to share between threads;
+   // as a GameListener it records every game of the games it is attached to.
+   public static class Writer implements GameListener, AutoCloseable
+   {
+      private static final int BATCH_BYTES = 64 * 1024;
+
+      private final FileChannel channel;
+      private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES + MAX_RECORD_BYTES);
+      private long games = 0;
+
+      // A log damaged in the middle is copied aside to <file>.corrupt and then cut back to
+      // the games before the damage, with a warning, rather than keeping the game from
+      // starting.
+      public Writer(File file) throws IOException
+      {
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+               StandardOpenOption.READ);
+         long end = 0;
+         try
+         {
+            if (channel.size() > 0)
+            {
+               checkHeader(channel);
+               // a game left half written by a crash would run into the next one appended,
+               // so the log is cut back to the end of the last whole game first
+               end = scan(channel, (mode, xPlayer, oPlayer, result, timestamp, rows, columns, winLength, moves, count) -> {});
+            }
+         }
+         catch (CorruptLogException e)
+         {
+            File aside = new File(file.getPath()+".corrupt");
+            Files.copy(file.toPath(), aside.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.err.println(file+": "+e.getMessage()+"; copied it to "+aside+" and "
+                  +(e.offset > HEADER_BYTES ? "kept the games before the damage" : "started a new log"));
+            end = e.offset;
+         }
+         if (end < channel.size())
+            channel.truncate(end);
+         // rewritten every time, which also brings a version 1 log up to date
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+         header.flip();
+         channel.write(header, 0);
+         channel.position(channel.size());
+      }
+
+      @Override public void gameEnded(Game game)
+      {
+         Board board = game.getBoard();
+         int count = game.getMoveCount();
+         int[] moves = new int[count];
+         for (int i = 0; i < count; i++)
+         {
+            moves[i] = game.getMove(i);
+         }
+         try
+         {
+            append(game.getMode(), game.getXPlayer(), game.getOPlayer(), game.getResult(), System.currentTimeMillis(),
+                  board.getRow(), board.getCol(), board.getWinLength(), moves, count);
+         }
+         catch (IOException e)
+         {
+            throw new IllegalStateException("Could not write the game log", e);
+         }
+      }
+
+      public synchronized void append(int mode, int xPlayer, int oPlayer, int result, long timestamp,
+            int rows, int columns, int winLength, int[] moves, int moveCount) throws IOException
+      {
+         boolean classic = rows == Board.ROWS && columns == Board.COLUMNS && winLength == Board.WIN_LENGTH;
+         int cells = rows*columns;
+         if (moveCount > maxMoves(cells))
+            throw new IllegalArgumentException(moveCount+" moves on "+cells+" squares");
+         batch.put((byte)((result & 3) | (mode & 7) << 2 | (classic ? 0 : GENERAL_SIZE)));
+         putVarint(batch, xPlayer);
+         putVarint(batch, oPlayer);
+         putVarint(batch, timestamp);
+         if (!classic)
+         {
+            putVarint(batch, rows);
+            putVarint(batch, columns);
+            putVarint(batch, winLength);
+         }
+         putVarint(batch, moveCount);
+         if (classic)
+         {
+            for (int i = 0; i < moveCount; i += 2)
+            {
+               int low = moves[i] < 0 ? CLASSIC_PASS : moves[i];
+               int high = i+1 >= moveCount ? 0 : moves[i+1] < 0 ? CLASSIC_PASS : moves[i+1];
+               batch.put((byte)(low | high << 4));
+            }
+         }
+         else
+         {
+            for (int i = 0; i < moveCount; i++)
+            {
+               putVarint(batch, moves[i] < 0 ? cells : moves[i]);
+            }
+         }
+         games++;
+         if (batch.position() >= BATCH_BYTES)
+            flush();
+      }
+
+      public synchronized void flush() throws IOException
+      {
+         batch.flip();
+         while (batch.hasRemaining())
+         {
+            channel.write(batch);
+         }
+         batch.clear();
+      }
+
+      public synchronized long getGames()
+      {
+         return games;
+      }
+
+      @Override public synchronized void close() throws IOException
+      {
+         flush();
+         channel.close();
+      }
+   }
+
+   // Streams every game in the file through visitor without building an object per game
+   // and returns the number of games. A game cut short at the end of the file (a crash in
+   // the middle of a write) is ignored; anything else that cannot be a game, such as a move
+   // off the board, is reported as a corrupt log.
+   public static long read(File file, Visitor visitor) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+      {
+         checkHeader(channel);
+         long[] games = new long[1];
+         scan(channel, (mode, xPlayer, oPlayer, result, timestamp, rows, columns, winLength, moves, count) -> {
+            visitor.game(mode, xPlayer, oPlayer, result, timestamp, rows, columns, winLength, moves, count);
+            games[0]++;
+         });
+         return games[0];
+      }
+   }
+
+   // decodes every game after the header through visitor and returns the offset just past
+   // the last whole one
+   private static long scan(FileChannel channel, Visitor visitor) throws IOException
+   {
+      long size = channel.size();
+      long base = HEADER_BYTES;
+      int[] moves = new int[Board.CELLS];
+      while (base < size)
+      {
+         long length = Math.min(WINDOW_BYTES, size - base);
+         boolean last = base + length == size;
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+         // a window other than the last stops where a whole game may no longer fit
+         int stop = last ? (int)length : (int)length - MAX_RECORD_BYTES;
+         int record = 0;
+         try
+         {
+            while (buffer.position() < stop)
+            {
+               record = buffer.position();
+               int flags = buffer.get();
+               int xPlayer = getVarint(buffer);
+               int oPlayer = getVarint(buffer);
+               long timestamp = getVarlong(buffer);
+               int rows = Board.ROWS, columns = Board.COLUMNS, winLength = Board.WIN_LENGTH;
+               boolean classic = (flags & GENERAL_SIZE) == 0;
+               if (!classic)
+               {
+                  rows = getVarint(buffer);
+                  columns = getVarint(buffer);
+                  winLength = getVarint(buffer);
+                  if (rows < 1 || columns < 1 || (long)rows*columns > 0xFFFF || winLength < 1 || winLength > Math.max(rows, columns))
+                     throw corrupt(base + record, "board size "+rows+"x"+columns+" k="+winLength);
+               }
+               int cells = rows*columns;
+               int count = getVarint(buffer);
+               if (count < 0 || count > maxMoves(cells))
+                  throw corrupt(base + record, count+" moves on "+cells+" squares");
+               if (count > moves.length)
+                  moves = new int[Math.max(count, 2*moves.length)];
+               if (classic)
+               {
+                  for (int i = 0; i < count; i += 2)
+                  {
+                     int pair = buffer.get();
+                     moves[i] = classicMove(pair & 0xF);
+                     if (i+1 < count)
+                        moves[i+1] = classicMove((pair >>> 4) & 0xF);
+                  }
+               }
+               else
+               {
+                  for (int i = 0; i < count; i++)
+                  {
+                     int cell = getVarint(buffer);
+                     moves[i] = cell == cells ? -1 : cell;
+                  }
+               }
+               for (int i = 0; i < count; i++)
+               {
+                  if (moves[i] < -1 || moves[i] >= cells)
+                     throw corrupt(base + record, "move "+moves[i]+" on "+cells+" squares");
+               }
+               visitor.game((flags >>> 2) & 7, xPlayer, oPlayer, flags & 3, timestamp,
+                     rows, columns, winLength, moves, count);
+            }
+            record = buffer.position();
+         }
+         catch (BufferUnderflowException e)
+         {
+            if (!last)
+               throw corrupt(base + record, "game runs past the window");
+         }
+         base += record;
+         if (last)
+            break;
+      }
+      return base;
+   }
+
+   // a stone on every square with a pass before each, and one more
+   private static int maxMoves(int cells)
+   {
+      return 2*cells + 1;
+   }
+
+   private static int classicMove(int nibble)
+   {
+      return nibble == CLASSIC_PASS ? -1 : nibble;
+   }
+
+   // offset is where the good part of the file ends
+   private static class CorruptLogException extends IOException
+   {
+      final long offset;
+
+      CorruptLogException(long offset, String message)
+      {
+         super(message);
+         this.offset = offset;
+      }
+   }
+
+   private static IOException corrupt(long offset, String reason)
+   {
+      return new CorruptLogException(offset, "Corrupt game log at byte "+offset+": "+reason);
+   }
+
+   private static void checkHeader(FileChannel channel) throws IOException
+   {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      channel.read(header, 0);
+      int version = header.getInt(4);
+      if (header.getInt(0) != MAGIC || version < 1 || version > VERSION)
+         throw new CorruptLogException(0, "Not a game log");
+   }
+
+   private static void putVarint(ByteBuffer buffer, long value)
+   {
+      while ((value & ~0x7FL) != 0)
+      {
+         buffer.put((byte)((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      buffer.put((byte)value);
+   }
+
+   private static void putVarint(ByteBuffer buffer, int value)
+   {
+      putVarint(buffer, value & 0xFFFFFFFFL);
+   }
+
+   private static long getVarlong(ByteBuffer buffer)
+   {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do
+      {
+         b = buffer.get();
+         value |= (long)(b & 0x7F) << shift;
+         shift += 7;
+      }
+      while (b < 0);
+      return value;
+   }
+
+   private static int getVarint(ByteBuffer buffer)
+   {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do
+      {
+         b = buffer.get();
+         value |= (b & 0x7F) << shift;
+         shift += 7;
+      }
+      while (b < 0);
+      return value;
+   }
+
+   // java GameLog [file]: prints a summary of the games in a log
+   public static void main(String[] args) throws IOException
+   {
+      File file = new File(args.length > 0 ? args[0] : DEFAULT_FILE);
+      long[] results = new long[4];
+      long[] moves = new long[1];
+      long start = System.nanoTime();
+      long games = read(file, (mode, xPlayer, oPlayer, result, timestamp, rows, columns, winLength, cells, count) -> {
+         results[result]++;
+         moves[0] += count;
+      });
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("games: %d |X won: %d |O won: %d |tied: %d |unfinished: %d |mean length: %.2f",
+            games, results[X_WINS], results[O_WINS], results[DRAW], results[UNFINISHED],
+            games == 0 ? 0.0 : (double)moves[0]/games));
+      System.out.println(String.format("read %d bytes in %.2f s |games/s: %.0f", file.length(), seconds, games/seconds));
+   }
+}
@@ -0,0 +1,338 @@
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hosts many games at once over a line-based TCP protocol. Every connection is one session
+// running on its own virtual thread (a platform thread before Java 21) and owning its own
+// Game; all sessions share one ComputerMove, whose searches share a transposition table.
+//
+// Requests and replies are single lines; squares are numbered 1..rows*columns as in the GUI.
+//   NEW [rows columns winLength] [X|O]   start a game, playing X (moves first) or O, on a
+//                                         board of at most MAX_SIDE by MAX_SIDE
+//                                         -> READY, or MOVE <square> when the server opens
+//   MOVE <square>                         -> MOVE <square> [END <X|O|DRAW>], or END <X|O|DRAW>
+//                                            when the client's move finished the game
+//   BOARD                                 -> BOARD <one character per square>
+//   QUIT                                  -> BYE
+// Anything else is answered with ERROR <reason> and leaves the session as it was. A failure
+// inside the server is answered with ERROR too, and ends the game in progress.
+//
+// java GameServer [port] [move-millis]
+public class GameServer
+{
+   public static final int DEFAULT_PORT = 7070;
+   // largest rows or columns a client may ask for; a search's scratch state grows with the
+   // board, and one huge board must not take the heap from every other session
+   public static final int MAX_SIDE = 19;
+   private static final int BACKLOG = 4096;
+   // platform session threads only need a small stack
+   private static final long SESSION_STACK = 256 * 1024;
+
+   private final ServerSocket server;
+   private final ComputerMove engine;
+   private final ExecutorService sessions;
+   private final boolean virtualThreads;
+
+   private final AtomicLong open = new AtomicLong();
+   private final AtomicLong connections = new AtomicLong();
+   private final AtomicLong games = new AtomicLong();
+   private final AtomicLong moves = new AtomicLong();
+
+   // port 0 picks a free port; the server only listens on the loopback address
+   public GameServer(int port, ComputerMove engine) throws IOException
+   {
+      this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), engine);
+   }
+
+   public GameServer(InetSocketAddress address, ComputerMove engine) throws IOException
+   {
+      this.engine = engine;
+      server = new ServerSocket();
+      server.setReuseAddress(true);
+      server.bind(address, BACKLOG);
+      ExecutorService executor = virtualThreadExecutor();
+      virtualThreads = executor != null;
+      sessions = executor != null ? executor : Executors.newCachedThreadPool(runnable -> {
+         Thread thread = new Thread(null, runnable, "session", SESSION_STACK);
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   // Executors.newVirtualThreadPerTaskExecutor() when the running JDK has it (21+)
+   private static ExecutorService virtualThreadExecutor()
+   {
+      try
+      {
+         return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException | RuntimeException e)
+      {
+         return null;
+      }
+   }
+
+   public int getPort()
+   {
+      return server.getLocalPort();
+   }
+
+   public boolean usesVirtualThreads()
+   {
+      return virtualThreads;
+   }
+
+   // accepts connections until close() is called
+   public void serve() throws IOException
+   {
+      while (!server.isClosed())
+      {
+         Socket socket;
+         try
+         {
+            socket = server.accept();
+         }
+         catch (IOException e)
+         {
+            if (server.isClosed())
+               break;
+            // e.g. out of file descriptors; the sessions already open keep running
+            System.err.println("accept failed: "+e.getMessage());
+            pause();
+            continue;
+         }
+         open.incrementAndGet();
+         connections.incrementAndGet();
+         sessions.execute(() -> session(socket));
+      }
+   }
+
+   private static void pause()
+   {
+      try
+      {
+         Thread.sleep(10);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   public void close() throws IOException
+   {
+      server.close();
+      sessions.shutdownNow();
+      engine.cancelSearch();
+   }
+
+   public long getOpenSessions()
+   {
+      return open.get();
+   }
+
+   public long getGames()
+   {
+      return games.get();
+   }
+
+   public long getMoves()
+   {
+      return moves.get();
+   }
+
+   public String toString()
+   {
+      return "sessions: "+open.get()+" |connections: "+connections.get()+" |games: "+games.get()+" |moves: "+moves.get();
+   }
+
+   private void session(Socket socket)
+   {
+      try (Socket s = socket;
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+            Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII)))
+      {
+         s.setTcpNoDelay(true);
+         Session session = new Session();
+         String line;
+         while ((line = in.readLine()) != null)
+         {
+            String reply = session.handle(line.trim());
+            out.write(reply);
+            out.write('\n');
+            out.flush();
+            if (reply.equals("BYE"))
+               break;
+         }
+      }
+      catch (IOException e)
+      {
+         // the client went away; its game goes with it
+      }
+      finally
+      {
+         open.decrementAndGet();
+      }
+   }
+
+   private class Session
+   {
+      private Game game = null;
+      private Player client = Player.X;
+      private boolean over = true;
+
+      String handle(String line)
+      {
+         String[] words = line.split("\\s+");
+         try
+         {
+            switch (words[0].toUpperCase())
+            {
+               case "NEW":
+                  return newGame(words);
+               case "MOVE":
+                  if (words.length != 2)
+                     return "ERROR usage: MOVE <square>";
+                  return move(Integer.parseInt(words[1]));
+               case "BOARD":
+                  return board();
+               case "QUIT":
+                  return "BYE";
+               default:
+                  return "ERROR unknown command "+words[0];
+            }
+         }
+         catch (IllegalArgumentException e)
+         {
+            return "ERROR "+e.getMessage();
+         }
+         catch (RuntimeException e)
+         {
+            // a bug in the engine must not silently drop the connection; the game may be
+            // half way through a move, so the client has to start a new one
+            System.err.println("session failed on \""+line+"\": "+e);
+            e.printStackTrace();
+            over = true;
+            return "ERROR internal error, start a NEW game";
+         }
+      }
+
+      private String newGame(String[] words)
+      {
+         int rows = Board.ROWS, columns = Board.COLUMNS, winLength = Board.WIN_LENGTH;
+         int next = 1;
+         if (words.length >= 4)
+         {
+            rows = Integer.parseInt(words[1]);
+            columns = Integer.parseInt(words[2]);
+            winLength = Integer.parseInt(words[3]);
+            next = 4;
+            if (rows < 1 || rows > MAX_SIDE || columns < 1 || columns > MAX_SIDE
+                  || winLength < 1 || winLength > Math.max(rows, columns))
+               return "ERROR board must be at most "+MAX_SIDE+"x"+MAX_SIDE+" with 1 <= winLength <= its longer side";
+         }
+         Player side = Player.X;
+         if (next < words.length)
+         {
+            if (words[next].equalsIgnoreCase("O"))
+               side = Player.O;
+            else if (!words[next].equalsIgnoreCase("X"))
+               return "ERROR side must be X or O";
+         }
+         if (game == null || game.getBoard().getRow() != rows || game.getBoard().getCol() != columns
+               || game.getBoard().getWinLength() != winLength)
+            game = new Game(null, rows, columns, winLength, engine);
+         else
+            game.newGame();
+         client = side;
+         over = false;
+         return client == Player.O ? engineMove() : "READY";
+      }
+
+      private String move(int square)
+      {
+         if (game == null || over)
+            return "ERROR no game in progress";
+         Board board = game.getBoard();
+         int cell = square-1;
+         if (cell < 0 || cell >= board.getCells() || !board.isEmptyCell(cell))
+            return "ERROR square "+square+" is not free";
+         moves.incrementAndGet();
+         if (!game.playMove(client, cell))
+            return end();
+         return engineMove();
+      }
+
+      private String engineMove()
+      {
+         Player side = client.getOtherColor();
+         int cell = engine.chooseMove(side, game.getBoard());
+         moves.incrementAndGet();
+         String reply = "MOVE "+(cell+1);
+         return game.playMove(side, cell) ? reply : reply+" "+end();
+      }
+
+      private String end()
+      {
+         over = true;
+         games.incrementAndGet();
+         return game.gameIsTie() ? "END DRAW" : "END "+game.getGameWinner().getShortName();
+      }
+
+      private String board()
+      {
+         if (game == null)
+            return "ERROR no game";
+         Board board = game.getBoard();
+         StringBuilder out = new StringBuilder("BOARD ");
+         for (int cell = 0; cell < board.getCells(); cell++)
+         {
+            out.append(board.getValueAtCell(cell).getShortName());
+         }
+         return out.toString();
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+      ComputerMove engine = new ComputerMove();
+      engine.setMoveTimeBudget(args.length > 1 ? Long.parseLong(args[1]) : ComputerMove.DEFAULT_MOVE_TIME_MILLIS);
+      GameServer server = new GameServer(port, engine);
+      System.out.println("Listening on port "+server.getPort()+" with "
+            +(server.usesVirtualThreads() ? "virtual" : "platform")+" session threads");
+      Thread stats = new Thread(() -> {
+         long last = -1;
+         while (true)
+         {
+            try
+            {
+               Thread.sleep(10000);
+            }
+            catch (InterruptedException e)
+            {
+               return;
+            }
+            if (server.getMoves() != last)
+               System.out.println(server);
+            last = server.getMoves();
+         }
+      }, "server-stats");
+      stats.setDaemon(true);
+      stats.start();
+      server.serve();
+   }
+}
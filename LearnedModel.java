@@ -0,0 +1,348 @@
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Position values learned by SelfPlayTrainer. A value is for an afterstate, the position just
+// after a move, seen from the side that made it, between -1 (lost) and 1 (won).
+//
+// Boards of up to TABULAR_CELLS squares keep a table with one value per position, indexed by
+// the base-3 number of the squares (0 empty, 1 X, 2 O) taken over the symmetry that gives the
+// smallest index. Larger boards use a linear model squashed by a tanh curve over features(winLength) inputs: for each
+// n in 1..winLength, how many lines hold n of the mover's stones and none of the other side's,
+// the same for the other side, and a constant.
+//
+// File: "TTM1", version, kind, rows, columns, winLength, weight count, then the weights as floats.
+// Version 1 linear models were trained through Math.tanh rather than squash() and are not
+// loaded; version 1 tables are the same as version 2.
+public class LearnedModel
+{
+   public static final String DEFAULT_FILE = "model.bin";
+   public static final int TABULAR = 0, LINEAR = 1;
+   public static final int TABULAR_CELLS = 12;
+
+   private static final int MAGIC = 0x54544D31;   // "TTM1"
+   private static final int VERSION = 2;
+
+   private final int kind;
+   private final BoardGeometry geometry;
+   // written by the trainer's threads without locking; a lost update only slows learning
+   final float[] weights;
+   // tabular: powers[s][cell] is 3 to the power of the square cell moves to under symmetry s
+   private final int[][] powers;
+
+   private LearnedModel(int kind, BoardGeometry geometry, float[] weights)
+   {
+      this.kind = kind;
+      this.geometry = geometry;
+      this.weights = weights;
+      if (kind == TABULAR)
+      {
+         int[][] symmetries = geometry.symmetries;
+         powers = new int[symmetries.length][geometry.cells];
+         for (int s = 0; s < symmetries.length; s++)
+         {
+            for (int cell = 0; cell < geometry.cells; cell++)
+            {
+               powers[s][cell] = pow3(symmetries[s][cell]);
+            }
+         }
+      }
+      else
+         powers = null;
+   }
+
+   // an untrained model, all values 0
+   public static LearnedModel create(int rows, int columns, int winLength)
+   {
+      BoardGeometry geometry = BoardGeometry.of(rows, columns, winLength);
+      if (geometry.cells <= TABULAR_CELLS)
+         return new LearnedModel(TABULAR, geometry, new float[pow3(geometry.cells)]);
+      return new LearnedModel(LINEAR, geometry, new float[features(winLength)]);
+   }
+
+   public static int features(int winLength)
+   {
+      return 2*winLength + 1;
+   }
+
+   public int getKind()
+   {
+      return kind;
+   }
+
+   public BoardGeometry getGeometry()
+   {
+      return geometry;
+   }
+
+   public int getWeightCount()
+   {
+      return weights.length;
+   }
+
+   public boolean fits(Board board)
+   {
+      return board.getGeometry() == geometry;
+   }
+
+   public void save(File file) throws IOException
+   {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(kind);
+         out.writeInt(geometry.rows);
+         out.writeInt(geometry.cols);
+         out.writeInt(geometry.winLength);
+         out.writeInt(weights.length);
+         for (float weight : weights)
+         {
+            out.writeFloat(weight);
+         }
+      }
+   }
+
+   public static LearnedModel load(File file) throws IOException
+   {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+      {
+         if (in.readInt() != MAGIC)
+            throw new IOException("Not a model file: "+file);
+         int version = in.readInt();
+         int kind = in.readInt();
+         if (version != VERSION && !(version == 1 && kind == TABULAR))
+            throw new IOException("Model "+file+" is version "+version+" and this build reads "+VERSION
+                  +(version == 1 ? "; retrain it with SelfPlayTrainer" : ""));
+         BoardGeometry geometry = BoardGeometry.of(in.readInt(), in.readInt(), in.readInt());
+         int count = in.readInt();
+         LearnedModel model = create(geometry.rows, geometry.cols, geometry.winLength);
+         if (model.kind != kind || model.weights.length != count)
+            throw new IOException("Model "+file+" does not match its board size");
+         for (int i = 0; i < count; i++)
+         {
+            model.weights[i] = in.readFloat();
+         }
+         return model;
+      }
+      catch (EOFException e)
+      {
+         throw new IOException("Truncated model file: "+file);
+      }
+      catch (IllegalArgumentException e)
+      {
+         throw new IOException("Bad board size in model file: "+file, e);
+      }
+   }
+
+   private static int pow3(int n)
+   {
+      int result = 1;
+      for (int i = 0; i < n; i++)
+      {
+         result *= 3;
+      }
+      return result;
+   }
+
+   // Scores the moves of one position; one per thread. begin() looks at the position once,
+   // then each candidate move costs O(symmetries) on a table and O(lines through the square)
+   // on the linear model. The position itself is never changed.
+   public class Scorer
+   {
+      private final int[] base = new int[kind == TABULAR ? powers.length : 0];
+      private final float[] baseFeatures = new float[kind == LINEAR ? weights.length : 0];
+      private final float[] features = new float[baseFeatures.length];
+      private Board board;
+      private Player mover;
+      private int code;
+
+      public void begin(Board board, Player mover)
+      {
+         this.board = board;
+         this.mover = mover;
+         code = mover == Player.X ? 1 : 2;
+         if (kind == TABULAR)
+         {
+            for (int s = 0; s < base.length; s++)
+            {
+               int index = 0;
+               for (int cell = 0; cell < geometry.cells; cell++)
+               {
+                  Player value = board.getValueAtCell(cell);
+                  if (value != Player.EMPTY)
+                     index += (value == Player.X ? 1 : 2) * powers[s][cell];
+               }
+               base[s] = index;
+            }
+         }
+         else
+            lineFeatures(board, mover, baseFeatures);
+      }
+
+      public Board getBoard()
+      {
+         return board;
+      }
+
+      public Player getMover()
+      {
+         return mover;
+      }
+
+      // true when mover completes a line by playing cell
+      public boolean wins(int cell)
+      {
+         int k = geometry.winLength;
+         Player other = mover.getOtherColor();
+         for (int line : geometry.cellLines[cell])
+         {
+            if (board.getLineStones(mover, line) == k-1 && board.getLineStones(other, line) == 0)
+               return true;
+         }
+         return false;
+      }
+
+      // value of the position after mover plays the empty square cell: 1 for a win, 0 for
+      // filling the board, otherwise what the model says
+      public float score(int cell)
+      {
+         if (wins(cell))
+            return 1f;
+         if (board.getStones() + 1 == geometry.cells)
+            return 0f;
+         if (kind == TABULAR)
+            return weights[index(cell)];
+         return value(features(cell));
+      }
+
+      // table index of the position after cell; tabular models only
+      public int index(int cell)
+      {
+         int best = Integer.MAX_VALUE;
+         for (int s = 0; s < base.length; s++)
+         {
+            best = Math.min(best, base[s] + code*powers[s][cell]);
+         }
+         return best;
+      }
+
+      // the features of the position after cell, in an array reused by the next call; linear
+      // models only
+      public float[] features(int cell)
+      {
+         System.arraycopy(baseFeatures, 0, features, 0, features.length);
+         int k = geometry.winLength;
+         Player other = mover.getOtherColor();
+         for (int line : geometry.cellLines[cell])
+         {
+            int m = board.getLineStones(mover, line);
+            int t = board.getLineStones(other, line);
+            addLine(features, m, t, k, -1f);
+            addLine(features, m+1, t, k, 1f);
+         }
+         return features;
+      }
+   }
+
+   // features of board seen from mine into out
+   private void lineFeatures(Board board, Player mine, float[] out)
+   {
+      int k = geometry.winLength;
+      Arrays.fill(out, 0, 2*k, 0f);
+      Player other = mine.getOtherColor();
+      for (int line = 0; line < geometry.lines.length; line++)
+      {
+         addLine(out, board.getLineStones(mine, line), board.getLineStones(other, line), k, 1f);
+      }
+      out[2*k] = 1f;
+   }
+
+   // the features of the position on board seen from mover, the side that made the last
+   // move; linear models only
+   public void encode(Board board, Player mover, float[] out)
+   {
+      lineFeatures(board, mover, out);
+   }
+
+   // table index of the position on board; tabular models only
+   public int index(Board board)
+   {
+      int best = Integer.MAX_VALUE;
+      for (int[] power : powers)
+      {
+         int index = 0;
+         for (int cell = 0; cell < geometry.cells; cell++)
+         {
+            Player value = board.getValueAtCell(cell);
+            if (value != Player.EMPTY)
+               index += (value == Player.X ? 1 : 2) * power[cell];
+         }
+         best = Math.min(best, index);
+      }
+      return best;
+   }
+
+   public float tableValue(int index)
+   {
+      return weights[index];
+   }
+
+   // tanh(x) to within 0.024, from its [3/2] Pade approximant clamped at +-3 where it reaches
+   // +-1; a few arithmetic operations against about 110 ns for Math.tanh
+   static float squash(float x)
+   {
+      x = Math.max(-3f, Math.min(3f, x));
+      return x * (27f + x*x) / (27f + 9f*x*x);
+   }
+
+   private static void addLine(float[] features, int mine, int theirs, int k, float amount)
+   {
+      if (theirs == 0 && mine > 0)
+         features[mine-1] += amount;
+      else if (mine == 0 && theirs > 0)
+         features[k + theirs-1] += amount;
+   }
+
+   // linear model value of a feature vector
+   public float value(float[] features)
+   {
+      float sum = 0f;
+      for (int i = 0; i < weights.length; i++)
+      {
+         sum += weights[i] * features[i];
+      }
+      return squash(sum);
+   }
+
+   // moves the table entry towards target by step
+   void updateTable(int index, float target, float step)
+   {
+      weights[index] += step * (target - weights[index]);
+   }
+
+   // one gradient step of the linear model towards target, normalised by the feature size
+   void updateLinear(float[] features, float target, float step)
+   {
+      float value = value(features);
+      float norm = 1f;
+      for (float f : features)
+      {
+         norm += f*f;
+      }
+      float scale = step * (target - value) * (1f - value*value) / norm;
+      for (int i = 0; i < weights.length; i++)
+      {
+         weights[i] += scale * features[i];
+      }
+   }
+}
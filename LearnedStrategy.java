@@ -0,0 +1,64 @@
+
+
+import java.io.File;
+import java.io.IOException;
+
+// Plays the move whose afterstate a LearnedModel values most. A board the model was not
+// trained for gets -1, so ComputerMove falls back to its own engines.
+public class LearnedStrategy implements MoveStrategy
+{
+   private final LearnedModel model;
+   private final ThreadLocal<Batch> batches;
+
+   public LearnedStrategy(LearnedModel model)
+   {
+      this.model = model;
+      batches = ThreadLocal.withInitial(() -> new Batch(model));
+   }
+
+   public static LearnedStrategy load(File file) throws IOException
+   {
+      return new LearnedStrategy(LearnedModel.load(file));
+   }
+
+   public LearnedModel getModel()
+   {
+      return model;
+   }
+
+   @Override public int chooseMove(Player player, Board board)
+   {
+      if (!model.fits(board))
+         return -1;
+      Batch batch = batches.get();
+      batch.scorer.begin(board, player);
+      batch.positions.clear();
+      int count = 0;
+      for (int w = 0; w < board.getWords(); w++)
+      {
+         for (long bits = board.getEmptyWord(w); bits != 0; bits &= bits-1)
+         {
+            int cell = (w<<6) + Long.numberOfTrailingZeros(bits);
+            batch.cells[count++] = cell;
+            batch.positions.add(batch.scorer, cell);
+         }
+      }
+      int best = PositionBatch.best(batch.positions.evaluate(), count);
+      return best < 0 ? -1 : batch.cells[best];
+   }
+
+   // the values of every move of a position
+   private static class Batch
+   {
+      final LearnedModel.Scorer scorer;
+      final PositionBatch positions;
+      final int[] cells;
+
+      Batch(LearnedModel model)
+      {
+         scorer = model.new Scorer();
+         positions = new PositionBatch(model, model.getGeometry().getCells());
+         cells = new int[model.getGeometry().getCells()];
+      }
+   }
+}
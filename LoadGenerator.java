@@ -0,0 +1,381 @@
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+// Simulated clients for GameServer. Each client plays random moves as X, one request at a
+// time, and starts a new game whenever one ends. Clients are spread over a few selector
+// threads so tens of thousands of them need no more than a handful of threads here.
+// In a mixed run every client goes through the MIXED board sizes in turn, one per game, so
+// sessions of different sizes share the server's engine at the same time. Before the load
+// starts, a NEW for a board over GameServer.MAX_SIDE must be turned away with an ERROR.
+//
+// java LoadGenerator [clients] [seconds] [threads] [host] [port] [rows columns winLength | mixed]
+// With port 0 (the default) a GameServer is started in this JVM on a free loopback port.
+public class LoadGenerator
+{
+   // rows, columns and winLength of the boards a mixed run plays
+   public static final int[][] MIXED = {{3, 3, 3}, {4, 4, 4}, {15, 15, 5}, {5, 5, 4}};
+
+   private final InetSocketAddress address;
+   private final int clients;
+   private final int threads;
+   // rows, columns and winLength of each board size the clients play
+   private final int[][] sizes;
+
+   private long requests;
+   private long games;
+   private long errors;
+   private long[] latencies = new long[0];
+   private long elapsedNanos;
+
+   public LoadGenerator(InetSocketAddress address, int clients, int threads, int rows, int columns, int winLength)
+   {
+      this(address, clients, threads, new int[][] {{rows, columns, winLength}});
+   }
+
+   public LoadGenerator(InetSocketAddress address, int clients, int threads, int[][] sizes)
+   {
+      this.address = address;
+      this.clients = clients;
+      this.threads = Math.max(1, Math.min(threads, clients));
+      this.sizes = sizes.clone();
+   }
+
+   public void run(long seconds) throws IOException, InterruptedException
+   {
+      Worker[] workers = new Worker[threads];
+      for (int i = 0; i < threads; i++)
+      {
+         workers[i] = new Worker(clients/threads + (i < clients%threads ? 1 : 0), i);
+      }
+      // every connection is made before the clock starts
+      for (Worker worker : workers)
+      {
+         worker.connect();
+      }
+      long start = System.nanoTime();
+      long end = start + seconds*1000000000L;
+      for (Worker worker : workers)
+      {
+         worker.end = end;
+         worker.start();
+      }
+      int samples = 0;
+      for (Worker worker : workers)
+      {
+         worker.join();
+         if (worker.failure != null)
+            throw new IOException("Load worker failed", worker.failure);
+         samples += worker.samples;
+      }
+      elapsedNanos = System.nanoTime() - start;
+      requests = games = errors = 0;
+      latencies = new long[samples];
+      samples = 0;
+      for (Worker worker : workers)
+      {
+         requests += worker.samples;
+         games += worker.games;
+         errors += worker.errors;
+         System.arraycopy(worker.latencies, 0, latencies, samples, worker.samples);
+         samples += worker.samples;
+         worker.close();
+      }
+      Arrays.sort(latencies);
+   }
+
+   public double getRequestsPerSecond()
+   {
+      return elapsedNanos == 0 ? 0.0 : requests * 1e9 / elapsedNanos;
+   }
+
+   // latency in microseconds at the given fraction, e.g. 0.99
+   public double getPercentile(double fraction)
+   {
+      if (latencies.length == 0)
+         return 0.0;
+      int index = (int)Math.min(latencies.length-1, Math.ceil(fraction*latencies.length)-1);
+      return latencies[Math.max(0, index)] / 1000.0;
+   }
+
+   public String toString()
+   {
+      return String.format("clients: %d |threads: %d |time: %.1f s |requests: %d |games: %d |errors: %d%n"
+            + "requests/s: %.0f |moves/s: %.0f |games/s: %.0f%n"
+            + "latency us  p50: %.0f |p90: %.0f |p99: %.0f |p99.9: %.0f |max: %.0f",
+            clients, threads, elapsedNanos/1e9, requests, games, errors,
+            getRequestsPerSecond(), 2*getRequestsPerSecond(), games*1e9/elapsedNanos,
+            getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getPercentile(0.999), getPercentile(1.0));
+   }
+
+   // one selector thread and the clients it drives
+   private class Worker extends Thread
+   {
+      private final Selector selector;
+      private final Client[] owned;
+      private final Random random;
+      long end;
+      long[] latencies = new long[1 << 16];
+      int samples;
+      long games;
+      long errors;
+      Throwable failure;
+
+      Worker(int count, int index) throws IOException
+      {
+         super("load-"+index);
+         selector = Selector.open();
+         owned = new Client[count];
+         random = new Random(index);
+      }
+
+      void connect() throws IOException
+      {
+         for (int i = 0; i < owned.length; i++)
+         {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            owned[i] = new Client(channel, i);
+            channel.register(selector, SelectionKey.OP_READ, owned[i]);
+         }
+      }
+
+      @Override public void run()
+      {
+         try
+         {
+            for (Client client : owned)
+            {
+               client.newGame();
+            }
+            while (System.nanoTime() - end < 0)
+            {
+               selector.select(100);
+               for (SelectionKey key : selector.selectedKeys())
+               {
+                  Client client = (Client)key.attachment();
+                  if (key.isWritable())
+                     client.flush(key);
+                  if (key.isReadable())
+                     client.read(key);
+               }
+               selector.selectedKeys().clear();
+            }
+         }
+         catch (Throwable t)
+         {
+            failure = t;
+         }
+      }
+
+      void close() throws IOException
+      {
+         for (Client client : owned)
+         {
+            if (client != null)
+               client.channel.close();
+         }
+         selector.close();
+      }
+
+      private void record(long nanos)
+      {
+         if (samples == latencies.length)
+            latencies = Arrays.copyOf(latencies, samples*2);
+         latencies[samples++] = nanos;
+      }
+
+      private class Client
+      {
+         final SocketChannel channel;
+         final ByteBuffer in = ByteBuffer.allocate(256);
+         boolean[] taken = new boolean[0];
+         ByteBuffer out = null;
+         long sent;
+         boolean playing;
+         // index into sizes of the next game's board
+         int size;
+
+         Client(SocketChannel channel, int index)
+         {
+            this.channel = channel;
+            size = index % sizes.length;
+         }
+
+         void newGame() throws IOException
+         {
+            int[] board = sizes[size];
+            size = (size+1) % sizes.length;
+            if (taken.length != board[0]*board[1])
+               taken = new boolean[board[0]*board[1]];
+            else
+               Arrays.fill(taken, false);
+            playing = false;
+            send("NEW "+board[0]+" "+board[1]+" "+board[2]+" X\n");
+         }
+
+         void move() throws IOException
+         {
+            int cell = random.nextInt(taken.length);
+            while (taken[cell])
+            {
+               cell = (cell+1) % taken.length;
+            }
+            taken[cell] = true;
+            playing = true;
+            send("MOVE "+(cell+1)+"\n");
+         }
+
+         void send(String request) throws IOException
+         {
+            out = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+            sent = System.nanoTime();
+            channel.write(out);
+            if (out.hasRemaining())
+               channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            else
+               out = null;
+         }
+
+         void flush(SelectionKey key) throws IOException
+         {
+            channel.write(out);
+            if (!out.hasRemaining())
+            {
+               out = null;
+               key.interestOps(SelectionKey.OP_READ);
+            }
+         }
+
+         void read(SelectionKey key) throws IOException
+         {
+            if (channel.read(in) < 0)
+            {
+               key.cancel();
+               throw new IOException("Server closed the connection");
+            }
+            for (int i = 0; i < in.position(); i++)
+            {
+               if (in.get(i) != '\n')
+                  continue;
+               String reply = new String(in.array(), 0, i, StandardCharsets.US_ASCII);
+               in.limit(in.position()).position(i+1);
+               in.compact();
+               reply(reply);
+               return;
+            }
+         }
+
+         private void reply(String reply) throws IOException
+         {
+            long now = System.nanoTime();
+            if (playing)
+               record(now - sent);
+            String[] words = reply.split(" ");
+            if (words[0].equals("ERROR"))
+            {
+               errors++;
+               newGame();
+            }
+            else if (words[0].equals("END") || words.length > 2)
+            {
+               games++;
+               newGame();
+            }
+            else if (words[0].equals("MOVE"))
+            {
+               taken[Integer.parseInt(words[1])-1] = true;
+               move();
+            }
+            else
+               move();
+         }
+      }
+   }
+
+   // sends one request on a connection of its own and returns the reply
+   public static String request(InetSocketAddress address, String line) throws IOException
+   {
+      try (Socket socket = new Socket(address.getAddress(), address.getPort());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)))
+      {
+         OutputStream out = socket.getOutputStream();
+         out.write((line+"\nQUIT\n").getBytes(StandardCharsets.US_ASCII));
+         out.flush();
+         String reply = in.readLine();
+         if (reply == null)
+            throw new IOException("Server closed the connection on \""+line+"\"");
+         return reply;
+      }
+   }
+
+   public static void main(String[] args) throws IOException, InterruptedException
+   {
+      int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+      long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+      int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+      String host = args.length > 3 ? args[3] : "localhost";
+      int port = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+      boolean mixed = args.length > 5 && args[5].equalsIgnoreCase("mixed");
+      int rows = args.length > 5 && !mixed ? Integer.parseInt(args[5]) : Board.ROWS;
+      int columns = args.length > 6 ? Integer.parseInt(args[6]) : rows;
+      int winLength = args.length > 7 ? Integer.parseInt(args[7]) : Math.min(Board.WIN_LENGTH, Math.max(rows, columns));
+      int[][] sizes = mixed ? MIXED : new int[][] {{rows, columns, winLength}};
+
+      GameServer server = null;
+      InetSocketAddress address;
+      if (port == 0)
+      {
+         ComputerMove engine = new ComputerMove();
+         engine.setMoveTimeBudget(ComputerMove.DEFAULT_MOVE_TIME_MILLIS);
+         GameServer local = new GameServer(0, engine);
+         Thread accept = new Thread(() -> {
+            try
+            {
+               local.serve();
+            }
+            catch (IOException e)
+            {
+               e.printStackTrace();
+            }
+         }, "accept");
+         accept.setDaemon(true);
+         accept.start();
+         server = local;
+         address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+         System.out.println("In-process server with "+(server.usesVirtualThreads() ? "virtual" : "platform")+" session threads");
+      }
+      else
+         address = new InetSocketAddress(host, port);
+
+      String oversized = "NEW 200 200 5";
+      String reply = request(address, oversized);
+      System.out.println(oversized+" -> "+reply);
+      if (!reply.startsWith("ERROR"))
+         throw new IllegalStateException("Server accepted an oversized board");
+
+      LoadGenerator load = new LoadGenerator(address, clients, threads, sizes);
+      load.run(seconds);
+      System.out.println(load);
+      if (server != null)
+      {
+         System.out.println(server);
+         server.close();
+      }
+   }
+}
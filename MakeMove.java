@@ -8,8 +8,13 @@ public class MakeMove
 
     public MakeMove()
     {
-        board=new Board();
-        valueSet = new ValueSetter();
+        this(Board.ROWS, Board.COLUMNS, Board.WIN_LENGTH);
+    }
+
+    public MakeMove(int rows, int columns, int winLength)
+    {
+        board=new Board(rows, columns, winLength);
+        valueSet = new ValueSetter(rows, columns);
     }
 
     public Board getBoard()
@@ -22,10 +27,10 @@ public class MakeMove
         valueSet.settingActualValue(move+"");
         int yvalue=valueSet.getCol();
         int xvalue=valueSet.getRow();
-        if(board.getValueAtSquare(xvalue,yvalue)==player.EMPTY)
+        if(board.isEmpty(xvalue,yvalue))
         {
             board.setBoard(player, xvalue, yvalue);
-            if(board.checkIfWinner(player))
+            if(board.checkIfWinner(player, xvalue, yvalue))
             {
                 return true;
             }
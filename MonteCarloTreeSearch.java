@@ -0,0 +1,427 @@
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// UCT search with random playouts. The tree lives in parallel arrays indexed by node
+// number rather than in node objects, and several threads grow it together, using a
+// virtual loss to steer each other onto different branches.
+public class MonteCarloTreeSearch implements MoveStrategy
+{
+   public static final int DEFAULT_NODES = 1 << 18;
+   private static final double EXPLORATION = Math.sqrt(2);
+   private static final int UNEXPANDED = 0, EXPANDING = 1, EXPANDED = 2;
+   private static final long VISIT = 1L << 32;
+   // playout results in half points for the player who moved into the node
+   private static final int WIN = 2, DRAW = 1;
+   // visits a model's value of a new node counts as, when there is a model
+   private static final int PRIOR_VISITS = 4;
+
+   private final int capacity;
+   private final int[] move;
+   private final int[] firstChild;
+   private final int[] childCount;
+   private final AtomicIntegerArray state;
+   private final AtomicLongArray stats;   // visits:32 | half points:32
+   private final AtomicInteger nodeCount = new AtomicInteger();
+
+   private long iterationBudget = 20000;
+   private long timeBudgetNanos = 0;
+   private int threads = 1;
+   private LearnedModel model = null;
+   private ExecutorService workers = null;
+   private volatile boolean stop = false;
+   private final AtomicLong playouts = new AtomicLong();
+   private long lastPlayouts = 0;
+   private long lastNanos = 0;
+
+   public MonteCarloTreeSearch()
+   {
+      this(DEFAULT_NODES);
+   }
+
+   public MonteCarloTreeSearch(int capacity)
+   {
+      this.capacity = capacity;
+      move = new int[capacity];
+      firstChild = new int[capacity];
+      childCount = new int[capacity];
+      state = new AtomicIntegerArray(capacity);
+      stats = new AtomicLongArray(capacity);
+   }
+
+   // total playouts per move, 0 for no limit
+   public void setIterationBudget(long iterations)
+   {
+      iterationBudget = Math.max(0, iterations);
+   }
+
+   public long getIterationBudget()
+   {
+      return iterationBudget;
+   }
+
+   // wall-clock limit per move in milliseconds, 0 for no limit
+   public void setTimeBudget(long millis)
+   {
+      timeBudgetNanos = Math.max(0, millis) * 1000000L;
+   }
+
+   public long getTimeBudget()
+   {
+      return timeBudgetNanos / 1000000L;
+   }
+
+   // With a model, every node starts out with PRIOR_VISITS visits worth the model's value
+   // of its position, the moves of a node being valued when it is expanded.
+   // A model for another board size is ignored. null goes back to plain playouts.
+   public synchronized void setValueModel(LearnedModel model)
+   {
+      this.model = model;
+   }
+
+   public LearnedModel getValueModel()
+   {
+      return model;
+   }
+
+   public synchronized void setThreads(int count)
+   {
+      count = Math.max(1, count);
+      if (count != threads && workers != null)
+      {
+         workers.shutdownNow();
+         workers = null;
+      }
+      threads = count;
+   }
+
+   public int getThreads()
+   {
+      return threads;
+   }
+
+   public long getLastPlayouts()
+   {
+      return lastPlayouts;
+   }
+
+   public double getPlayoutsPerSecond()
+   {
+      return lastNanos == 0 ? 0.0 : lastPlayouts * 1e9 / lastNanos;
+   }
+
+   public int getTreeSize()
+   {
+      return nodeCount.get();
+   }
+
+   public String toString()
+   {
+      return "MCTS playouts: "+lastPlayouts+" |nodes: "+getTreeSize()+" |threads: "+threads
+            +" |playouts/s: "+String.format("%.0f", getPlayoutsPerSecond());
+   }
+
+   @Override public synchronized int chooseMove(Player player, Board board)
+   {
+      if (board.checkIfWinner(player.getOtherColor()) || board.boardIsFull())
+         return -1;
+      if (iterationBudget == 0 && timeBudgetNanos == 0)
+         throw new IllegalStateException("MCTS needs an iteration or time budget");
+
+      nodeCount.set(1);
+      resetNode(0, -1);
+      int[] candidates = new int[board.getCells()];
+      if (!expand(0, board, player, candidates, priors(board)))
+      {
+         // the node pool cannot even hold the root's children: play a random candidate,
+         // as a playout would
+         lastPlayouts = 0;
+         lastNanos = 0;
+         return candidates[ThreadLocalRandom.current().nextInt(candidateMoves(board, candidates))];
+      }
+
+      stop = false;
+      playouts.set(0);
+      long start = System.nanoTime();
+      long deadline = timeBudgetNanos > 0 ? start + timeBudgetNanos : 0;
+      if (threads == 1)
+      {
+         search(player, board, deadline);
+      }
+      else
+      {
+         runParallel(player, board, deadline);
+      }
+      lastNanos = System.nanoTime() - start;
+      // every worker counts one more iteration on its way out
+      lastPlayouts = Math.max(0, playouts.get() - threads);
+
+      // the most visited move is the most trusted one
+      int best = -1;
+      long bestVisits = -1;
+      for (int child = firstChild[0]; child < firstChild[0] + childCount[0]; child++)
+      {
+         long visits = stats.get(child) >>> 32;
+         if (visits > bestVisits)
+         {
+            bestVisits = visits;
+            best = move[child];
+         }
+      }
+      return best;
+   }
+
+   private void runParallel(Player player, Board board, long deadline)
+   {
+      if (workers == null)
+      {
+         workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "mcts-worker");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+      Future<?>[] tasks = new Future<?>[threads];
+      for (int i = 0; i < threads; i++)
+      {
+         tasks[i] = workers.submit(() -> search(player, board, deadline));
+      }
+      for (Future<?> task : tasks)
+      {
+         try
+         {
+            task.get();
+         }
+         catch (InterruptedException e)
+         {
+            stop = true;
+            Thread.currentThread().interrupt();
+         }
+         catch (ExecutionException e)
+         {
+            stop = true;
+            throw new IllegalStateException("MCTS worker failed", e.getCause());
+         }
+      }
+   }
+
+   // one worker: select, expand, play out and back up until the budget is spent
+   private void search(Player player, Board root, long deadline)
+   {
+      Board board = new Board(root);
+      int[] path = new int[root.getCells()+2];
+      int[] buffer = new int[root.getCells()];
+      Priors priors = priors(root);
+      // a node is grown on its second real visit
+      long expandVisits = 2 + (priors != null ? PRIOR_VISITS : 0);
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (!stop)
+      {
+         long done = playouts.getAndIncrement();
+         if ((iterationBudget > 0 && done >= iterationBudget)
+               || (deadline != 0 && (done & 63) == 0 && System.nanoTime() - deadline >= 0))
+         {
+            stop = true;
+            break;
+         }
+
+         board.copyFrom(root);
+         Player toMove = player;
+         int node = 0;
+         int length = 0;
+         path[length++] = 0;
+         stats.getAndAdd(0, VISIT);
+         Player winner = null;
+         while (true)
+         {
+            if (state.get(node) != EXPANDED)
+            {
+               // grow the tree by one level here if nobody else is, then play out from it
+               if (state.get(node) != UNEXPANDED || (stats.get(node) >>> 32) < expandVisits
+                     || !expand(node, board, toMove, buffer, priors))
+                  break;
+            }
+            int child = select(node);
+            // the virtual loss: a visit without points until the playout result arrives
+            stats.getAndAdd(child, VISIT);
+            path[length++] = child;
+            int cell = move[child];
+            board.setCell(toMove, cell);
+            if (board.isWinningMove(toMove, cell))
+            {
+               winner = toMove;
+               break;
+            }
+            if (board.boardIsFull())
+            {
+               winner = Player.EMPTY;
+               break;
+            }
+            toMove = toMove.getOtherColor();
+            node = child;
+         }
+         if (winner == null)
+         {
+            winner = playout(board, toMove, buffer, random);
+         }
+
+         // path[d] was entered by the root player's opponent at even depths
+         for (int d = 0; d < length; d++)
+         {
+            Player mover = (d & 1) == 1 ? player : player.getOtherColor();
+            int points = winner == mover ? WIN : winner == Player.EMPTY ? DRAW : 0;
+            if (points != 0)
+               stats.getAndAdd(path[d], points);
+         }
+      }
+   }
+
+   private int select(int node)
+   {
+      int first = firstChild[node];
+      int count = childCount[node];
+      double logVisits = Math.log(Math.max(1, stats.get(node) >>> 32));
+      int best = first;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      for (int child = first; child < first + count; child++)
+      {
+         long s = stats.get(child);
+         long visits = s >>> 32;
+         if (visits == 0)
+            return child;
+         double value = (s & 0xFFFFFFFFL) / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+         if (value > bestValue)
+         {
+            bestValue = value;
+            best = child;
+         }
+      }
+      return best;
+   }
+
+   // Adds a child for every candidate move of the position on board, toMove to play.
+   // Returns false when another thread got there first or the node pool is full.
+   private boolean expand(int node, Board board, Player toMove, int[] buffer, Priors priors)
+   {
+      if (!state.compareAndSet(node, UNEXPANDED, EXPANDING))
+         return false;
+      int count = candidateMoves(board, buffer);
+      // claims the children's slots only if they fit, so a full pool stays full rather than
+      // the count running on (and wrapping) with every leaf that tries again
+      int first;
+      do
+      {
+         first = nodeCount.get();
+         if (first + count > capacity)
+         {
+            state.set(node, UNEXPANDED);
+            return false;
+         }
+      }
+      while (!nodeCount.compareAndSet(first, first + count));
+      for (int i = 0; i < count; i++)
+      {
+         resetNode(first+i, buffer[i]);
+      }
+      if (priors != null)
+         priors.seed(first, board, toMove, buffer, count);
+      firstChild[node] = first;
+      childCount[node] = count;
+      // publishes the children written above to the other threads
+      state.set(node, EXPANDED);
+      return true;
+   }
+
+   private Priors priors(Board board)
+   {
+      LearnedModel current = model;
+      return current != null && current.fits(board) ? new Priors(current, board.getCells()) : null;
+   }
+
+   // one thread's values for the children of the nodes it expands
+   private class Priors
+   {
+      final LearnedModel.Scorer scorer;
+      final PositionBatch batch;
+
+      Priors(LearnedModel model, int cells)
+      {
+         scorer = model.new Scorer();
+         batch = new PositionBatch(model, cells);
+      }
+
+      // gives the count nodes from first, the moves in cells, their prior visits and points
+      void seed(int first, Board board, Player toMove, int[] cells, int count)
+      {
+         scorer.begin(board, toMove);
+         batch.clear();
+         for (int i = 0; i < count; i++)
+         {
+            batch.add(scorer, cells[i]);
+         }
+         float[] values = batch.evaluate();
+         for (int i = 0; i < count; i++)
+         {
+            // value -1..1 for the side that moved into the child, as half points per visit
+            long points = Math.round((values[i] + 1.0) * PRIOR_VISITS);
+            stats.set(first+i, PRIOR_VISITS * VISIT + points);
+         }
+      }
+   }
+
+   private void resetNode(int node, int cell)
+   {
+      move[node] = cell;
+      firstChild[node] = 0;
+      childCount[node] = 0;
+      stats.set(node, 0);
+      state.set(node, UNEXPANDED);
+   }
+
+   // empty squares, limited on large boards to those near a stone like the negamax engine
+   private static int candidateMoves(Board board, int[] buffer)
+   {
+      boolean local = board.getCells() > NegamaxSearch.LOCAL_SEARCH_CELLS && board.getStones() > 0;
+      int count = 0;
+      for (int pass = local ? 0 : 1; pass < 2 && count == 0; pass++)
+      {
+         for (int cell = 0; cell < board.getCells(); cell++)
+         {
+            if (board.isEmptyCell(cell) && (pass == 1 || board.hasNeighbour(cell)))
+               buffer[count++] = cell;
+         }
+      }
+      return count;
+   }
+
+   // plays uniformly random moves to the end and returns the winner, EMPTY for a draw
+   private Player playout(Board board, Player toMove, int[] empties, ThreadLocalRandom random)
+   {
+      int count = 0;
+      for (int w = 0; w < board.getWords(); w++)
+      {
+         for (long empty = board.getEmptyWord(w); empty != 0; empty &= empty-1)
+         {
+            empties[count++] = (w<<6) + Long.numberOfTrailingZeros(empty);
+         }
+      }
+      while (count > 0)
+      {
+         int pick = random.nextInt(count);
+         int cell = empties[pick];
+         empties[pick] = empties[--count];
+         board.setCell(toMove, cell);
+         if (board.isWinningMove(toMove, cell))
+            return toMove;
+         toMove = toMove.getOtherColor();
+      }
+      return Player.EMPTY;
+   }
+}
@@ -0,0 +1,8 @@
+
+
+// Anything that can pick the computer's move: the negamax engine, MCTS, a learned model...
+public interface MoveStrategy
+{
+   // cell index (row*columns+column) of the move player should make, or -1 if there is none
+   int chooseMove(Player player, Board board);
+}
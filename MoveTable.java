@@ -0,0 +1,156 @@
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Perfect-play table for the 3x3 board: one byte per position, indexed by the base-3
+// number formed by the squares (0 empty, 1 X, 2 O). X is assumed to move first, so the
+// side to move follows from the piece count.
+public class MoveTable
+{
+   public static final String DEFAULT_FILE = "movetable.bin";
+   public static final int LOSS = 0, DRAW = 1, WIN = 2;
+
+   private static final int MAGIC = 0x54545431;   // "TTT1"
+   private static final int HEADER_BYTES = 8;
+   private static final int POSITIONS = pow3(Board.CELLS);
+   private static final int PRESENT = 0x80;
+
+   // base-3 contribution of a bit mask, so index = TERNARY[x] + 2*TERNARY[o]
+   private static final int[] TERNARY = new int[Board.FULL_MASK+1];
+
+   static
+   {
+      for (int mask = 0; mask <= Board.FULL_MASK; mask++)
+      {
+         int value = 0;
+         for (int cell = Board.CELLS-1; cell >= 0; cell--)
+         {
+            value = value*3 + ((mask >> cell) & 1);
+         }
+         TERNARY[mask] = value;
+      }
+   }
+
+   private final MappedByteBuffer entries;
+
+   private MoveTable(MappedByteBuffer entries)
+   {
+      this.entries = entries;
+   }
+
+   // maps the table into memory; returns null when the file is missing or not a move table
+   public static MoveTable load(File file)
+   {
+      if (!file.isFile())
+         return null;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+      {
+         FileChannel channel = raf.getChannel();
+         if (channel.size() != HEADER_BYTES + POSITIONS)
+            return null;
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != Board.CELLS)
+            return null;
+         return new MoveTable(buffer);
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   public static int index(Board board)
+   {
+      return TERNARY[(int)board.getBits(Player.X)] + 2*TERNARY[(int)board.getBits(Player.O)];
+   }
+
+   public static Player sideToMove(Board board)
+   {
+      return Long.bitCount(board.getBits(Player.X)) > Long.bitCount(board.getBits(Player.O)) ? Player.O : Player.X;
+   }
+
+   // best cell for player, or -1 if the position is not in the table for that player
+   public int bestMove(Board board, Player player)
+   {
+      int entry = entry(board, player);
+      return entry < 0 ? -1 : entry & 0xF;
+   }
+
+   // LOSS, DRAW or WIN for the side to move, or -1 if the position is not in the table
+   public int value(Board board, Player player)
+   {
+      int entry = entry(board, player);
+      return entry < 0 ? -1 : (entry >> 4) & 0x3;
+   }
+
+   private int entry(Board board, Player player)
+   {
+      if (board.getRow() != Board.ROWS || board.getCol() != Board.COLUMNS || board.getWinLength() != Board.WIN_LENGTH || player != sideToMove(board))
+         return -1;
+      int entry = entries.get(HEADER_BYTES + index(board)) & 0xFF;
+      return (entry & PRESENT) == 0 ? -1 : entry;
+   }
+
+   public static void generate(File file) throws IOException
+   {
+      byte[] table = new byte[POSITIONS];
+      NegamaxSearch search = new NegamaxSearch();
+      search.setTranspositionTable(new TranspositionTable(16));
+      int count = solve(new Board(), Player.X, search, table);
+
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file)))
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(Board.CELLS);
+         out.write(table);
+      }
+      System.out.println("Wrote "+count+" positions to "+file+" ("+(HEADER_BYTES + POSITIONS)+" bytes)");
+   }
+
+   // fills in every reachable non-terminal position below board, returns how many were new
+   private static int solve(Board board, Player player, NegamaxSearch search, byte[] table)
+   {
+      if (board.checkIfWinner(player.getOtherColor()) || board.boardIsFull())
+         return 0;
+      int index = index(board);
+      if (table[index] != 0)
+         return 0;
+
+      int move = search.findBestMove(player, board);
+      int score = search.getBestScore();
+      int value = score > 0 ? WIN : score < 0 ? LOSS : DRAW;
+      table[index] = (byte)(PRESENT | (value << 4) | move);
+
+      int count = 1;
+      for (int cell = 0; cell < Board.CELLS; cell++)
+      {
+         if (board.isEmptyCell(cell))
+         {
+            board.setCell(player, cell);
+            count += solve(board, player.getOtherColor(), search, table);
+            board.setCell(Player.EMPTY, cell);
+         }
+      }
+      return count;
+   }
+
+   private static int pow3(int n)
+   {
+      int result = 1;
+      for (int i = 0; i < n; i++)
+      {
+         result *= 3;
+      }
+      return result;
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      generate(new File(args.length > 0 ? args[0] : DEFAULT_FILE));
+   }
+}
@@ -0,0 +1,672 @@
+
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NegamaxSearch implements MoveStrategy, AutoCloseable
+{
+   public static final int WIN_SCORE = 1000000;
+   public static final int FULL_DEPTH = Integer.MAX_VALUE;
+   private static final int INFINITY = WIN_SCORE+1;
+   // scores beyond this are wins or losses and are stored relative to the node
+   static final int WIN_THRESHOLD = WIN_SCORE-0x10000;
+   // above this many squares only moves next to existing stones are searched
+   static final int LOCAL_SEARCH_CELLS = 16;
+   // the clock and node budget are checked once every STOP_CHECK_MASK+1 nodes
+   private static final int STOP_CHECK_MASK = 255;
+
+   private int maxDepth = FULL_DEPTH;
+   private int previousBest = -1;
+   private SearchContext context = new SearchContext(Board.CELLS);
+   private TranspositionTable table = null;
+   private long timeBudgetNanos = 0;
+   private long nodeBudget = 0;
+   private long deadline = 0;
+   private Cancellation cancellation = new Cancellation();
+   // the number of the search in progress, checked against cancellation
+   private long searchNumber = 0;
+   private SearchMetrics metrics = SearchMetrics.getDefault();
+
+   // Lazy SMP: helper threads search the same position on their own board copies and
+   // share what they find through the transposition table. They run on a pool shared with
+   // other searches (see setHelperExecutor) or else on one made here, which close() ends.
+   private int threads = 1;
+   private ExecutorService helpers = null;
+   private boolean ownHelpers = false;
+   private Board[] helperBoards = new Board[0];
+   private SearchContext[] helperContexts = new SearchContext[0];
+   private Future<?>[] helperTasks = new Future<?>[0];
+   // per helper of the current search: QUEUED until a pool thread or stopHelpers claims it
+   private AtomicIntegerArray helperClaims = new AtomicIntegerArray(0);
+   private static final int QUEUED = 0, RUNNING = 1, DROPPED = 2;
+   private volatile boolean helpersStop = false;
+
+   public NegamaxSearch()
+   {
+   }
+
+   public NegamaxSearch(int maxDepth)
+   {
+      setMaxDepth(maxDepth);
+   }
+
+   public void setMaxDepth(int depth)
+   {
+      maxDepth = Math.max(1, depth);
+   }
+
+   // the table is kept between searches, so it stays warm across moves and games
+   public void setTranspositionTable(TranspositionTable table)
+   {
+      this.table = table;
+   }
+
+   public TranspositionTable getTranspositionTable()
+   {
+      return table;
+   }
+
+   // where every search reports its counters and latency; null for none
+   public void setMetrics(SearchMetrics metrics)
+   {
+      this.metrics = metrics;
+   }
+
+   public SearchMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   public int getMaxDepth()
+   {
+      return maxDepth;
+   }
+
+   // Wall-clock limit per move in milliseconds, 0 for none. With a time or node budget the
+   // search deepens one ply at a time and answers with the last completed iteration.
+   public void setTimeBudget(long millis)
+   {
+      timeBudgetNanos = Math.max(0, millis) * 1000000L;
+   }
+
+   public long getTimeBudget()
+   {
+      return timeBudgetNanos / 1000000L;
+   }
+
+   public void setNodeBudget(long nodes)
+   {
+      nodeBudget = Math.max(0, nodes);
+   }
+
+   public long getNodeBudget()
+   {
+      return nodeBudget;
+   }
+
+   // Number of threads per search. Extra threads only help with a transposition table,
+   // and the move played is always the one found by the calling thread.
+   public synchronized void setThreads(int count)
+   {
+      count = Math.max(1, count);
+      if (count != threads)
+         closeHelpers();
+      threads = count;
+   }
+
+   // Runs the helpers on executor, which the caller shuts down, instead of a pool of this
+   // search's own; null goes back to an own pool. See ComputerMove, whose searches share one.
+   public synchronized void setHelperExecutor(ExecutorService executor)
+   {
+      closeHelpers();
+      helpers = executor;
+   }
+
+   public static ExecutorService newHelperPool(int threads)
+   {
+      return Executors.newFixedThreadPool(threads, runnable -> {
+         Thread thread = new Thread(runnable, "search-helper");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   // ends the helper threads this search made itself; it still searches, on one thread
+   // until it needs helpers again
+   @Override public synchronized void close()
+   {
+      closeHelpers();
+   }
+
+   private void closeHelpers()
+   {
+      if (ownHelpers)
+      {
+         helpers.shutdown();
+         helpers = null;
+         ownHelpers = false;
+      }
+   }
+
+   public int getThreads()
+   {
+      return threads;
+   }
+
+   // nodes searched by the calling thread and all helpers in the last search
+   public long getTotalNodes()
+   {
+      long total = context.nodes;
+      for (SearchContext helper : helperContexts)
+      {
+         if (helper != null)
+            total += helper.nodes;
+      }
+      return total;
+   }
+
+   // Searches are numbered when they are queued (see reserveSearch) or else when they start.
+   // A cancel stops every search numbered before it, including one still waiting to start,
+   // which would otherwise clear a plain flag on its way in, and none numbered after it.
+   public static class Cancellation
+   {
+      private final AtomicLong issued = new AtomicLong();
+      private final AtomicLong cancelledThrough = new AtomicLong();
+
+      public long next()
+      {
+         return issued.incrementAndGet();
+      }
+
+      public void cancel()
+      {
+         cancelledThrough.accumulateAndGet(issued.get(), Math::max);
+      }
+
+      public boolean isCancelled(long number)
+      {
+         return number <= cancelledThrough.get();
+      }
+   }
+
+   // shared by searches that are cancelled together, as ComputerMove's are
+   public void setCancellation(Cancellation cancellation)
+   {
+      this.cancellation = cancellation;
+   }
+
+   public Cancellation getCancellation()
+   {
+      return cancellation;
+   }
+
+   // a number for a search about to be queued, to pass to findBestMove
+   public long reserveSearch()
+   {
+      return cancellation.next();
+   }
+
+   // Stops the searches running or reserved so far, which then return their best move so
+   // far (the first legal move if they had not started); safe from any thread.
+   public void cancel()
+   {
+      cancellation.cancel();
+   }
+
+   public int getCompletedDepth()
+   {
+      return context.completedDepth;
+   }
+
+   public int getBestScore()
+   {
+      return context.bestScore;
+   }
+
+   public long getNodes()
+   {
+      return context.nodes;
+   }
+
+   public SearchContext getContext()
+   {
+      return context;
+   }
+
+   @Override public int chooseMove(Player player, Board board)
+   {
+      return findBestMove(player, board);
+   }
+
+   // Principal variation of the last search, which must have been from this position: its
+   // best move, then the best reply stored in the transposition table for each position
+   // that follows, up to the completed depth, the end of the game or the end of moves.
+   // Returns the number of moves written; board is left as it was.
+   public int principalVariation(Player player, Board board, int[] moves)
+   {
+      int move = context.bestMove;
+      int length = 0;
+      int limit = Math.min(moves.length, Math.max(1, context.completedDepth));
+      while (move >= 0 && move < board.getCells() && board.isEmptyCell(move) && length < limit)
+      {
+         moves[length++] = move;
+         board.setCell(player, move);
+         if (table == null || board.isWinningMove(player, move) || board.boardIsFull())
+            break;
+         player = player.getOtherColor();
+         long canonical = Symmetry.canonicalKey(board, player);
+         long entry = table.probe(canonical >>> 3);
+         int stored = entry == 0 ? TranspositionTable.NO_MOVE : TranspositionTable.move(entry);
+         // a table shared between board sizes may hold a move from another board
+         move = stored >= board.getCells() ? -1
+               : Symmetry.fromCanonical(board.getGeometry(), stored, Symmetry.symmetryOf(canonical));
+      }
+      for (int i = length-1; i >= 0; i--)
+      {
+         board.setCell(Player.EMPTY, moves[i]);
+      }
+      return length;
+   }
+
+   // returns the cell index of the best move for player, or -1 if there is none
+   public int findBestMove(Player player, Board board)
+   {
+      return findBestMove(player, board, reserveSearch());
+   }
+
+   // as above for a search numbered by reserveSearch
+   public int findBestMove(Player player, Board board, long number)
+   {
+      long started = metrics != null ? System.nanoTime() : 0;
+      if (!context.fits(board))
+      {
+         // the last best move was on another board and may not even be a square of this one
+         context = new SearchContext(board.getCells());
+         previousBest = -1;
+      }
+      SearchContext ctx = context;
+      ctx.reset();
+      if (board.checkIfWinner(player.getOtherColor()) || board.boardIsFull())
+      {
+         return -1;
+      }
+      if (table != null)
+      {
+         table.newSearch();
+      }
+      searchNumber = number;
+      // cancelled while it was queued: skip straight to the fallback move
+      ctx.aborted = cancellation.isCancelled(number);
+      deadline = timeBudgetNanos > 0 ? System.nanoTime() + timeBudgetNanos : 0;
+      boolean budgeted = timeBudgetNanos > 0 || nodeBudget > 0;
+
+      int target = Math.min(maxDepth, board.getCells() - board.getStones());
+      int helperCount = ctx.aborted ? 0 : startHelpers(player, board, target);
+      int move = -1;
+      int score = 0;
+      for (int depth = budgeted ? 1 : target; depth <= target; depth++)
+      {
+         // the previous iteration's best move is searched first
+         ctx.killers[0] = move >= 0 ? move : previousBest;
+         int result = negamax(ctx, board, player, depth, 0, -INFINITY, INFINITY);
+         if (ctx.aborted)
+         {
+            break;
+         }
+         move = ctx.bestMove;
+         score = result;
+         ctx.completedDepth = depth;
+         if (result > WIN_THRESHOLD || result < -WIN_THRESHOLD)
+         {
+            break;   // proven win or loss, deeper search cannot change it
+         }
+      }
+      stopHelpers(helperCount);
+      if (move < 0)
+      {
+         // stopped before the first iteration finished
+         move = ctx.rootBest >= 0 ? ctx.rootBest : firstLegalMove(board);
+      }
+      recordStatistics(ctx);
+      if (metrics != null)
+      {
+         metrics.recordSearch(ctx, System.nanoTime() - started);
+      }
+      ctx.bestMove = move;
+      ctx.bestScore = score;
+      previousBest = move;
+      return move;
+   }
+
+   private synchronized int startHelpers(Player player, Board board, int target)
+   {
+      int count = table == null ? 0 : threads-1;
+      if (count == 0)
+         return 0;
+      if (helpers == null)
+      {
+         helpers = newHelperPool(count);
+         ownHelpers = true;
+      }
+      if (helperBoards.length != count)
+      {
+         helperBoards = new Board[count];
+         helperContexts = new SearchContext[count];
+         helperTasks = new Future<?>[count];
+      }
+      helpersStop = false;
+      // new every search, so a task of an earlier search still queued on a shared pool
+      // finds its own claim dropped rather than one of this search's
+      AtomicIntegerArray claims = new AtomicIntegerArray(count);
+      helperClaims = claims;
+      for (int i = 0; i < count; i++)
+      {
+         if (helperBoards[i] == null || helperBoards[i].getGeometry() != board.getGeometry())
+         {
+            helperBoards[i] = new Board(board.getRow(), board.getCol(), board.getWinLength());
+            helperContexts[i] = new SearchContext(board.getCells());
+         }
+         helperBoards[i].copyFrom(board);
+         helperContexts[i].reset();
+         int index = i+1;
+         Board helperBoard = helperBoards[i];
+         SearchContext helperContext = helperContexts[i];
+         try
+         {
+            helperTasks[i] = helpers.submit(() -> {
+               if (claims.compareAndSet(index-1, QUEUED, RUNNING))
+                  helperSearch(helperContext, helperBoard, player, target, index);
+            });
+         }
+         catch (RejectedExecutionException e)
+         {
+            // the shared pool was shut down; search with the helpers already started
+            return i;
+         }
+      }
+      return count;
+   }
+
+   private void helperSearch(SearchContext ctx, Board board, Player player, int target, int index)
+   {
+      ctx.helper = true;
+      ctx.orderOffset = index;
+      // odd helpers run one ply ahead so the threads spread over different depths
+      for (int depth = Math.min(target, 1 + (index & 1)); depth <= target && !helpersStop; depth++)
+      {
+         negamax(ctx, board, player, depth, 0, -INFINITY, INFINITY);
+         if (ctx.aborted)
+            break;
+      }
+      recordStatistics(ctx);
+      if (metrics != null)
+      {
+         metrics.recordCounters(ctx);
+      }
+   }
+
+   private void stopHelpers(int count)
+   {
+      helpersStop = true;
+      for (int i = 0; i < count; i++)
+      {
+         // a helper still queued behind another search's on a shared pool is dropped
+         // rather than waited for
+         if (helperClaims.compareAndSet(i, QUEUED, DROPPED))
+            continue;
+         try
+         {
+            helperTasks[i].get();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         catch (ExecutionException e)
+         {
+            throw new IllegalStateException("Search helper failed", e.getCause());
+         }
+      }
+   }
+
+   private void recordStatistics(SearchContext ctx)
+   {
+      if (table != null)
+      {
+         table.recordStatistics(ctx.ttProbes, ctx.ttHits, ctx.ttStores, ctx.ttOverwrites);
+      }
+   }
+
+   private boolean outOfBudget(SearchContext ctx)
+   {
+      return cancellation.isCancelled(searchNumber)
+            || (ctx.helper && helpersStop)
+            || (deadline != 0 && System.nanoTime() - deadline >= 0)
+            || (nodeBudget > 0 && ctx.nodes >= nodeBudget);
+   }
+
+   private static int firstLegalMove(Board board)
+   {
+      for (int cell : board.getGeometry().moveOrder)
+      {
+         if (board.isEmptyCell(cell))
+            return cell;
+      }
+      return -1;
+   }
+
+   // the position is never terminal here: wins and full boards are scored by the parent
+   private int negamax(SearchContext ctx, Board board, Player player, int depth, int ply, int alpha, int beta)
+   {
+      if ((++ctx.nodes & STOP_CHECK_MASK) == 0 && outOfBudget(ctx))
+      {
+         ctx.aborted = true;
+      }
+      if (ctx.aborted)
+      {
+         return 0;
+      }
+      if (depth == 0)
+      {
+         ctx.leafEvaluations++;
+         return ComputerMove.evaluate(board, player);
+      }
+
+      BoardGeometry geometry = board.getGeometry();
+      int alphaOrig = alpha;
+      long key = 0;
+      int symmetry = 0;
+      int hashMove = -1;
+      if (table != null)
+      {
+         long canonical = Symmetry.canonicalKey(board, player);
+         key = canonical >>> 3;
+         symmetry = Symmetry.symmetryOf(canonical);
+         long entry = table.probe(key);
+         ctx.ttProbes++;
+         if (entry != 0)
+         {
+            ctx.ttHits++;
+            int move = TranspositionTable.move(entry);
+            // a table shared between board sizes may hold a move from a larger board
+            if (move != TranspositionTable.NO_MOVE && move < geometry.cells)
+            {
+               hashMove = Symmetry.fromCanonical(geometry, move, symmetry);
+            }
+            if (TranspositionTable.depth(entry) >= depth && hashMove >= 0)
+            {
+               int score = fromTable(TranspositionTable.score(entry), ply);
+               int bound = TranspositionTable.bound(entry);
+               if (bound == TranspositionTable.EXACT
+                     || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                     || (bound == TranspositionTable.UPPER_BOUND && score <= alpha))
+               {
+                  if (ply == 0)
+                  {
+                     ctx.bestMove = hashMove;
+                  }
+                  return score;
+               }
+            }
+         }
+      }
+
+      Player other = player.getOtherColor();
+      int[] order = geometry.moveOrder;
+      int offset = ctx.orderOffset % order.length;
+      int first = hashMove >= 0 ? hashMove : ctx.killers[ply];
+      if (first >= geometry.cells)
+         first = -1;
+      int best = -INFINITY;
+      int bestCell = -1;
+      // on large boards try the squares near the stones first, and the rest only if there are none
+      boolean local = geometry.cells > LOCAL_SEARCH_CELLS && board.getStones() > 0;
+      for (int pass = local ? 0 : 1; pass < 2 && bestCell < 0; pass++)
+      {
+         for (int i = -1; i < order.length; i++)
+         {
+            int cell = i < 0 ? first : order[offset == 0 ? i : (i + offset) % order.length];
+            if (cell < 0 || (i >= 0 && cell == first) || !board.isEmptyCell(cell)
+                  || (pass == 0 && !board.hasNeighbour(cell)))
+            {
+               continue;
+            }
+            board.setCell(player, cell);
+            int score;
+            if (board.isWinningMove(player, cell))
+            {
+               // faster wins score higher
+               score = WIN_SCORE - (ply+1);
+            }
+            else if (board.boardIsFull())
+            {
+               score = 0;
+            }
+            else
+            {
+               score = -negamax(ctx, board, other, depth-1, ply+1, -beta, -alpha);
+            }
+            board.setCell(Player.EMPTY, cell);
+            if (ctx.aborted)
+            {
+               return 0;
+            }
+            if (score > best)
+            {
+               best = score;
+               bestCell = cell;
+               if (ply == 0)
+               {
+                  ctx.rootBest = cell;
+               }
+               if (score > alpha)
+               {
+                  alpha = score;
+                  if (alpha >= beta)
+                  {
+                     ctx.cutoffs++;
+                     break;
+                  }
+               }
+            }
+         }
+      }
+      ctx.killers[ply] = bestCell;
+      if (table != null)
+      {
+         int bound = best <= alphaOrig ? TranspositionTable.UPPER_BOUND
+               : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+         long stored = table.store(key, toTable(best, ply), bound, depth, Symmetry.toCanonical(geometry, bestCell, symmetry));
+         if (stored != 0)
+         {
+            ctx.ttStores++;
+            if (stored == TranspositionTable.REPLACED)
+               ctx.ttOverwrites++;
+         }
+      }
+      if (ply == 0)
+      {
+         ctx.bestMove = bestCell;
+      }
+      return best;
+   }
+
+   private static int toTable(int score, int ply)
+   {
+      if (score > WIN_THRESHOLD)
+         return score + ply;
+      if (score < -WIN_THRESHOLD)
+         return score - ply;
+      return score;
+   }
+
+   private static int fromTable(int score, int ply)
+   {
+      if (score > WIN_THRESHOLD)
+         return score - ply;
+      if (score < -WIN_THRESHOLD)
+         return score + ply;
+      return score;
+   }
+
+   static int[] buildMoveOrder(int rows, int cols)
+   {
+      int cells = rows*cols;
+      int[] order = new int[cells];
+      int count = 0;
+      int centre = (rows/2)*cols + cols/2;
+      order[count++] = centre;
+      int[] corners = {0, cols-1, (rows-1)*cols, cells-1};
+      for (int corner : corners)
+      {
+         if (!contains(order, count, corner))
+         {
+            order[count++] = corner;
+         }
+      }
+      // everything else sorted by distance from the centre
+      double cr = (rows-1)/2.0, cc = (cols-1)/2.0;
+      int start = count;
+      for (int cell = 0; cell < cells; cell++)
+      {
+         if (!contains(order, count, cell))
+         {
+            order[count++] = cell;
+         }
+      }
+      for (int i = start+1; i < count; i++)
+      {
+         int cell = order[i];
+         double d = distance(cell, cols, cr, cc);
+         int j = i-1;
+         while (j >= start && distance(order[j], cols, cr, cc) > d)
+         {
+            order[j+1] = order[j];
+            j--;
+         }
+         order[j+1] = cell;
+      }
+      return order;
+   }
+
+   private static double distance(int cell, int cols, double cr, double cc)
+   {
+      double dr = cell/cols - cr, dc = cell%cols - cc;
+      return dr*dr + dc*dc;
+   }
+
+   private static boolean contains(int[] values, int count, int value)
+   {
+      for (int i = 0; i < count; i++)
+      {
+         if (values[i] == value)
+            return true;
+      }
+      return false;
+   }
+}
@@ -0,0 +1,316 @@
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Game-tree enumeration ("perft"): plays out every sequence of moves from the empty board to
+// a given depth with ComputerMove.generateMoves, Board.setCell, Board.checkIfWinner and
+// Board.boardIsFull, counting the positions at each ply and the games that end there. The
+// counts are exact, so they check those routines, and the time taken benchmarks them.
+//
+// Bulk counting does not play the moves of the last ply but counts them, and finds the
+// winning ones from the line counts. Parallel runs play the first SPLIT_PLIES plies on
+// one thread and share the positions reached among the threads of a ForkJoinPool.
+//
+// java Perft [rows] [columns] [winLength] [depth] [threads] [bulk]
+// java Perft check    compares every way of counting against known counts and exits with 1
+//                     on a mismatch; run it after any change to the board representation
+public class Perft
+{
+   private static final int SPLIT_PLIES = 2;
+
+   // rows, columns, winLength, depth, then the positions at plies 1..depth, then the X wins,
+   // O wins and draws over all plies; 3x3 is the 255,168 games of the full tree
+   private static final long[][] KNOWN = {
+         {3, 3, 3, 9, 9, 72, 504, 3024, 15120, 54720, 148176, 200448, 127872, 131184, 77904, 46080},
+         {4, 4, 3, 6, 16, 240, 3360, 43680, 524160, 5518656, 22464, 236880, 0},
+         {4, 4, 4, 7, 16, 240, 3360, 43680, 524160, 5765760, 57657600, 316800, 0, 0},
+         {15, 15, 5, 3, 225, 50400, 11239200, 0, 0, 0}};
+
+   // positions[ply] positions were reached after ply moves, and xWins[ply], oWins[ply] and
+   // draws[ply] of them ended the game
+   public static final class Counts
+   {
+      final long[] positions;
+      final long[] xWins;
+      final long[] oWins;
+      final long[] draws;
+
+      Counts(int depth)
+      {
+         positions = new long[depth+1];
+         xWins = new long[depth+1];
+         oWins = new long[depth+1];
+         draws = new long[depth+1];
+      }
+
+      Counts add(Counts other)
+      {
+         for (int ply = 0; ply < positions.length; ply++)
+         {
+            positions[ply] += other.positions[ply];
+            xWins[ply] += other.xWins[ply];
+            oWins[ply] += other.oWins[ply];
+            draws[ply] += other.draws[ply];
+         }
+         return this;
+      }
+
+      public int getDepth()
+      {
+         return positions.length - 1;
+      }
+
+      public long getPositions(int ply)
+      {
+         return positions[ply];
+      }
+
+      public long getXWins(int ply)
+      {
+         return xWins[ply];
+      }
+
+      public long getOWins(int ply)
+      {
+         return oWins[ply];
+      }
+
+      public long getDraws(int ply)
+      {
+         return draws[ply];
+      }
+
+      // positions after every ply but the first, the empty board
+      public long getTotalPositions()
+      {
+         return sum(positions) - positions[0];
+      }
+
+      // sequences that end the game within the depth
+      public long getGames()
+      {
+         return sum(xWins) + sum(oWins) + sum(draws);
+      }
+
+      public String toString()
+      {
+         StringBuilder out = new StringBuilder(String.format("%4s %16s %14s %14s %14s%n", "ply", "positions", "X wins", "O wins", "draws"));
+         for (int ply = 1; ply < positions.length; ply++)
+         {
+            out.append(String.format("%4d %16d %14d %14d %14d%n", ply, positions[ply], xWins[ply], oWins[ply], draws[ply]));
+         }
+         return out.append(String.format("games: %d |X won: %d |O won: %d |tied: %d |unfinished at depth %d: %d",
+               getGames(), sum(xWins), sum(oWins), sum(draws), getDepth(),
+               positions[getDepth()] - xWins[getDepth()] - oWins[getDepth()] - draws[getDepth()])).toString();
+      }
+   }
+
+   private static long sum(long[] values)
+   {
+      long total = 0;
+      for (long value : values)
+      {
+         total += value;
+      }
+      return total;
+   }
+
+   // counts the tree below the empty board to depth plies, on threads threads
+   public static Counts count(int rows, int columns, int winLength, int depth, int threads, boolean bulk)
+   {
+      BoardGeometry geometry = BoardGeometry.of(rows, columns, winLength);
+      depth = Math.max(0, Math.min(depth, geometry.getCells()));
+      int split = threads > 1 && depth > SPLIT_PLIES ? SPLIT_PLIES : depth+1;
+      Walker top = new Walker(geometry, depth, bulk, split);
+      top.walk(Player.X, 0);
+      top.counts.positions[0] = 1;
+      if (top.prefixes.isEmpty())
+         return top.counts;
+
+      int finalDepth = depth;
+      Player player = (split & 1) == 0 ? Player.X : Player.O;
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try
+      {
+         Counts below = pool.submit(() -> IntStream.range(0, top.prefixes.size()).parallel().mapToObj(t -> {
+            Walker walker = new Walker(geometry, finalDepth, bulk, finalDepth+1);
+            Player side = Player.X;
+            for (int cell : top.prefixes.get(t))
+            {
+               walker.board.setCell(side, cell);
+               side = side.getOtherColor();
+            }
+            walker.walk(player, split);
+            return walker.counts;
+         }).reduce(Counts::add).get()).get();
+         return top.counts.add(below);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while counting", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Counting failed", e.getCause());
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   // one thread's walk over the tree, on a board of its own
+   private static final class Walker
+   {
+      final Board board;
+      final int depth;
+      final boolean bulk;
+      // positions that reach this ply are left for other walkers, in prefixes
+      final int split;
+      final Counts counts;
+      final int[][] moves;
+      final int[] path;
+      final List<int[]> prefixes = new ArrayList<>();
+
+      Walker(BoardGeometry geometry, int depth, boolean bulk, int split)
+      {
+         board = new Board(geometry.getRows(), geometry.getCols(), geometry.getWinLength());
+         this.depth = depth;
+         this.bulk = bulk;
+         this.split = split;
+         counts = new Counts(depth);
+         moves = new int[depth+1][geometry.getCells()];
+         path = new int[depth+1];
+      }
+
+      // the position at ply, player to move, is not over and ply is below the depth
+      void walk(Player player, int ply)
+      {
+         if (ply >= depth)
+            return;
+         int[] buffer = moves[ply];
+         int count = ComputerMove.generateMoves(board, player, buffer);
+         long[] wins = player == Player.X ? counts.xWins : counts.oWins;
+         if (bulk && ply+1 == depth)
+         {
+            int won = 0;
+            for (int i = 0; i < count; i++)
+            {
+               if (completesLine(player, buffer[i]))
+                  won++;
+            }
+            counts.positions[ply+1] += count;
+            wins[ply+1] += won;
+            if (board.getStones()+1 == board.getCells())
+               counts.draws[ply+1] += count - won;
+            return;
+         }
+         Player other = player.getOtherColor();
+         for (int i = 0; i < count; i++)
+         {
+            int cell = buffer[i];
+            board.setCell(player, cell);
+            counts.positions[ply+1]++;
+            if (board.checkIfWinner(player))
+               wins[ply+1]++;
+            else if (board.boardIsFull())
+               counts.draws[ply+1]++;
+            else if (ply+1 == split)
+            {
+               path[ply] = cell;
+               int[] prefix = new int[split];
+               System.arraycopy(path, 0, prefix, 0, split);
+               prefixes.add(prefix);
+            }
+            else
+            {
+               path[ply] = cell;
+               walk(other, ply+1);
+            }
+            board.setCell(Player.EMPTY, cell);
+         }
+      }
+
+      // true when player playing the empty square cell fills a line
+      private boolean completesLine(Player player, int cell)
+      {
+         BoardGeometry geometry = board.getGeometry();
+         Player other = player.getOtherColor();
+         for (int line : geometry.cellLines[cell])
+         {
+            if (board.getLineStones(player, line) == geometry.getWinLength()-1 && board.getLineStones(other, line) == 0)
+               return true;
+         }
+         return false;
+      }
+   }
+
+   // every known count, plain and bulk, on one thread and on several; returns the mismatches
+   private static int check()
+   {
+      int failures = 0;
+      for (long[] known : KNOWN)
+      {
+         int rows = (int)known[0], columns = (int)known[1], winLength = (int)known[2], depth = (int)known[3];
+         for (int threads : new int[] {1, 4})
+         {
+            for (boolean bulk : new boolean[] {false, true})
+            {
+               long start = System.nanoTime();
+               Counts counts = count(rows, columns, winLength, depth, threads, bulk);
+               double seconds = (System.nanoTime() - start) / 1e9;
+               long[] found = new long[known.length];
+               System.arraycopy(known, 0, found, 0, 4);
+               for (int ply = 1; ply <= depth; ply++)
+               {
+                  found[3+ply] = counts.positions[ply];
+               }
+               found[4+depth] = sum(counts.xWins);
+               found[5+depth] = sum(counts.oWins);
+               found[6+depth] = sum(counts.draws);
+               boolean ok = Arrays.equals(found, known);
+               if (!ok)
+                  failures++;
+               System.out.println(String.format("%dx%d k=%d depth %d |threads: %d |%s |%.2f s |%s",
+                     rows, columns, winLength, depth, threads, bulk ? "bulk " : "plain", seconds,
+                     ok ? "ok" : "MISMATCH\n"+counts));
+            }
+         }
+      }
+      return failures;
+   }
+
+   public static void main(String[] args)
+   {
+      if (args.length > 0 && args[0].equals("check"))
+      {
+         int failures = check();
+         if (failures > 0)
+         {
+            System.out.println(failures+" mismatches");
+            System.exit(1);
+         }
+         return;
+      }
+      int rows = args.length > 0 ? Integer.parseInt(args[0]) : Board.ROWS;
+      int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+      int winLength = args.length > 2 ? Integer.parseInt(args[2]) : Math.min(Board.WIN_LENGTH, Math.max(rows, columns));
+      int depth = args.length > 3 ? Integer.parseInt(args[3]) : rows*columns;
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+      boolean bulk = args.length > 5 && args[5].equals("bulk");
+
+      long start = System.nanoTime();
+      Counts counts = count(rows, columns, winLength, depth, threads, bulk);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(rows+"x"+columns+" k="+winLength+" depth "+counts.getDepth()+(bulk ? ", bulk counting" : ""));
+      System.out.println(counts);
+      System.out.println(String.format("positions: %d |threads: %d |time: %.2f s |positions/s: %.0f",
+            counts.getTotalPositions(), threads, seconds, counts.getTotalPositions() / seconds));
+   }
+}
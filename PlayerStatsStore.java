@@ -0,0 +1,616 @@
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+// Win/loss/draw counters per player id, shared by any number of sessions. Every result is
+// buffered for a write-ahead log as it is counted, and snapshot() writes all counters to a
+// compact file and starts a new log, so opening the store reads one snapshot and the short
+// log written since.
+//
+// Buffered results reach the log file when a buffer fills, on flush(), and every second once
+// startSnapshots() has been called. Only snapshot() and close() force the files to disk. So
+// a crash of the process loses the results since the last flush, and a crash of the machine
+// can also lose what the operating system had not yet written out since the last snapshot.
+//
+// Files for a store named "stats":
+//   stats.snapshot   "TTS1", version, generation, player count, then per player the id and
+//                    the six counters, all varints
+//   stats.wal.<n>    "TTW1", version, then one record per change: player id varint and a
+//                    byte holding the counter to add one to, or SET plus the counter
+//                    followed by the varint to set it to
+//   stats.lock       held while the store is open, so two processes never share the files
+// Logs numbered below the snapshot's generation are already in it and are deleted.
+public class PlayerStatsStore implements AutoCloseable
+{
+   public static final String DEFAULT_NAME = "stats";
+
+   public static final int WIN = 0, LOSS = 1, DRAW = 2;
+   // one counter per result against the computer, then per result against a human
+   public static final int COUNTERS = 6;
+
+   private static final int SNAPSHOT_MAGIC = 0x54545331;   // "TTS1"
+   private static final int WAL_MAGIC = 0x54545731;        // "TTW1"
+   private static final int VERSION = 1;
+   // version 2 logs add SET records
+   private static final int LOG_VERSION = 2;
+   private static final int SET = 0x40;
+   private static final int HEADER_BYTES = 8;
+   private static final int BATCH_BYTES = 16 * 1024;
+   private static final int MAX_RECORD_BYTES = 16;
+   private static final long FLUSH_MILLIS = 1000;
+   // Results are buffered and counted under one of STRIPES locks, picked by player id, so
+   // sessions recording games for different players rarely wait for each other. All of a
+   // player's records go through one stripe and so reach the log in order.
+   private static final int STRIPES = Math.min(16, 2*Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+   private final ConcurrentHashMap<Integer, Stats> players = new ConcurrentHashMap<>();
+   private final File directory;
+   private final String name;
+
+   // wal, generation and closed change only with every stripe locked, so a snapshot taken
+   // that way matches exactly the logs before the current one
+   private final Stripe[] stripes = new Stripe[STRIPES];
+   // one snapshot file is written at a time
+   private final Object snapshotLock = new Object();
+   // one stripe's buffer is written to the log at a time, so records never interleave
+   private final Object writeLock = new Object();
+   private FileChannel wal = null;
+   private FileLock lock = null;
+   private long generation = 0;
+   private boolean closed = false;
+   private ScheduledExecutorService timer = null;
+
+   private static class Stats
+   {
+      final StampedLock lock = new StampedLock();
+      final long[] counters = new long[COUNTERS];
+   }
+
+   private static class Stripe
+   {
+      final ReentrantLock lock = new ReentrantLock();
+      final ByteBuffer batch;
+
+      Stripe(boolean durable)
+      {
+         batch = durable ? ByteBuffer.allocateDirect(BATCH_BYTES + MAX_RECORD_BYTES) : null;
+      }
+   }
+
+   // a store that lives only in memory
+   public PlayerStatsStore()
+   {
+      this(null, null);
+   }
+
+   private PlayerStatsStore(File directory, String name)
+   {
+      this.directory = directory;
+      this.name = name;
+      for (int i = 0; i < STRIPES; i++)
+      {
+         stripes[i] = new Stripe(directory != null);
+      }
+   }
+
+   // Loads the latest snapshot and replays the logs written after it; a record cut short by a
+   // crash at the end of the last log is ignored. New results go to a fresh log.
+   public static PlayerStatsStore open(File directory, String name) throws IOException
+   {
+      PlayerStatsStore store = new PlayerStatsStore(directory, name);
+      directory.mkdirs();
+      FileChannel lockFile = FileChannel.open(new File(directory, name+".lock").toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try
+      {
+         store.lock = lockFile.tryLock();
+      }
+      catch (OverlappingFileLockException e)
+      {
+         // already open in this process
+      }
+      if (store.lock == null)
+      {
+         lockFile.close();
+         throw new IOException("The statistics store "+name+" is already open");
+      }
+      long first = store.readSnapshot();
+      long last = first;
+      for (Map.Entry<Long, File> log : store.logs().entrySet())
+      {
+         if (log.getKey() < first)
+            Files.deleteIfExists(log.getValue().toPath());
+         else
+         {
+            store.replay(log.getValue());
+            last = log.getKey() + 1;
+         }
+      }
+      store.lockStripes();
+      try
+      {
+         store.startLog(Math.max(first, last));
+      }
+      finally
+      {
+         store.unlockStripes();
+      }
+      return store;
+   }
+
+   // counter for a result against the computer or a human
+   public static int counter(int result, boolean againstComputer)
+   {
+      return (againstComputer ? 0 : 3) + result;
+   }
+
+   public void recordGame(int player, boolean againstComputer, int result)
+   {
+      if (result < WIN || result > DRAW)
+         throw new IllegalArgumentException("Unknown result "+result);
+      update(player, counter(result, againstComputer), -1);
+   }
+
+   // sets one of the player's counters outright, for callers that keep their own counts
+   public void set(int player, int counter, long value)
+   {
+      if (counter < 0 || counter >= COUNTERS)
+         throw new IllegalArgumentException("Unknown counter "+counter);
+      if (value < 0)
+         throw new IllegalArgumentException("Negative count "+value);
+      update(player, counter, value);
+   }
+
+   // adds one to the counter when value is negative, else sets it to value
+   private void update(int player, int counter, long value)
+   {
+      Stats stats = players.computeIfAbsent(player, id -> new Stats());
+      Stripe stripe = stripe(player);
+      stripe.lock.lock();
+      try
+      {
+         if (closed)
+            throw new IllegalStateException("The statistics store is closed");
+         if (wal != null)
+         {
+            ByteBuffer batch = stripe.batch;
+            putVarint(batch, player);
+            if (value < 0)
+               batch.put((byte)counter);
+            else
+            {
+               batch.put((byte)(SET | counter));
+               putVarint(batch, value);
+            }
+            if (batch.position() >= BATCH_BYTES)
+            {
+               try
+               {
+                  flushLog(batch);
+               }
+               catch (IOException e)
+               {
+                  throw new IllegalStateException("Could not write the statistics log", e);
+               }
+            }
+         }
+         long stamp = stats.lock.writeLock();
+         stats.counters[counter] = value < 0 ? stats.counters[counter] + 1 : value;
+         stats.lock.unlockWrite(stamp);
+      }
+      finally
+      {
+         stripe.lock.unlock();
+      }
+   }
+
+   private Stripe stripe(int player)
+   {
+      return stripes[(int)((player * 0x9E3779B97F4A7C15L) >>> 58) & (STRIPES-1)];
+   }
+
+   private void lockStripes()
+   {
+      for (Stripe stripe : stripes)
+      {
+         stripe.lock.lock();
+      }
+   }
+
+   private void unlockStripes()
+   {
+      for (int i = STRIPES-1; i >= 0; i--)
+      {
+         stripes[i].lock.unlock();
+      }
+   }
+
+   // Copies the player's counters into counters (at least COUNTERS long) as they were at one
+   // moment, without blocking writers; a player with no games reads as all zero.
+   public void read(int player, long[] counters)
+   {
+      Stats stats = players.get(player);
+      if (stats == null)
+      {
+         for (int i = 0; i < COUNTERS; i++)
+         {
+            counters[i] = 0;
+         }
+         return;
+      }
+      long stamp = stats.lock.tryOptimisticRead();
+      System.arraycopy(stats.counters, 0, counters, 0, COUNTERS);
+      if (!stats.lock.validate(stamp))
+      {
+         stamp = stats.lock.readLock();
+         System.arraycopy(stats.counters, 0, counters, 0, COUNTERS);
+         stats.lock.unlockRead(stamp);
+      }
+   }
+
+   public long get(int player, int counter)
+   {
+      long[] counters = new long[COUNTERS];
+      read(player, counters);
+      return counters[counter];
+   }
+
+   public int getPlayers()
+   {
+      return players.size();
+   }
+
+   public boolean isDurable()
+   {
+      return directory != null;
+   }
+
+   // writes buffered results to the operating system, one stripe at a time
+   public void flush() throws IOException
+   {
+      for (Stripe stripe : stripes)
+      {
+         stripe.lock.lock();
+         try
+         {
+            if (wal != null && !closed)
+               flushLog(stripe.batch);
+         }
+         finally
+         {
+            stripe.lock.unlock();
+         }
+      }
+   }
+
+   // Writes every counter to a new snapshot and deletes the logs it covers. Results keep
+   // being recorded while the file is written; they go to the log started here.
+   public void snapshot() throws IOException
+   {
+      if (directory == null)
+         return;
+      synchronized (snapshotLock)
+      {
+         takeSnapshot();
+      }
+   }
+
+   private void takeSnapshot() throws IOException
+   {
+      List<Integer> ids = new ArrayList<>();
+      List<long[]> counters = new ArrayList<>();
+      long covered;
+      lockStripes();
+      try
+      {
+         if (closed)
+            return;
+         covered = generation;
+         for (Map.Entry<Integer, Stats> entry : players.entrySet())
+         {
+            ids.add(entry.getKey());
+            counters.add(entry.getValue().counters.clone());
+         }
+         closeLog();
+         startLog(covered + 1);
+      }
+      finally
+      {
+         unlockStripes();
+      }
+      writeSnapshot(covered + 1, ids, counters);
+      for (Map.Entry<Long, File> log : logs().headMap(covered + 1).entrySet())
+      {
+         Files.deleteIfExists(log.getValue().toPath());
+      }
+   }
+
+   // snapshots every periodMillis and flushes the log every second in between
+   public synchronized void startSnapshots(long periodMillis)
+   {
+      if (directory == null || timer != null)
+         return;
+      timer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread thread = new Thread(r, "stats-snapshot");
+         thread.setDaemon(true);
+         return thread;
+      });
+      timer.scheduleWithFixedDelay(() -> run(this::snapshot), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+      long flush = Math.min(FLUSH_MILLIS, periodMillis);
+      timer.scheduleWithFixedDelay(() -> run(this::flush), flush, flush, TimeUnit.MILLISECONDS);
+   }
+
+   private interface Task
+   {
+      void run() throws IOException;
+   }
+
+   private static void run(Task task)
+   {
+      try
+      {
+         task.run();
+      }
+      catch (IOException e)
+      {
+         e.printStackTrace();
+      }
+   }
+
+   // takes a last snapshot so the next open has no log to replay
+   @Override public void close() throws IOException
+   {
+      synchronized (this)
+      {
+         if (timer != null)
+            timer.shutdown();
+      }
+      snapshot();
+      lockStripes();
+      try
+      {
+         if (wal != null && !closed)
+            closeLog();
+         if (lock != null && !closed)
+            lock.channel().close();
+         closed = true;
+      }
+      finally
+      {
+         unlockStripes();
+      }
+   }
+
+   // with every stripe locked
+   private void closeLog() throws IOException
+   {
+      for (Stripe stripe : stripes)
+      {
+         flushLog(stripe.batch);
+      }
+      wal.force(false);
+      wal.close();
+   }
+
+   private void flushLog(ByteBuffer batch) throws IOException
+   {
+      synchronized (writeLock)
+      {
+         write(wal, batch);
+      }
+   }
+
+   private void startLog(long number) throws IOException
+   {
+      generation = number;
+      wal = FileChannel.open(logFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.READ);
+      if (wal.size() < HEADER_BYTES)
+      {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(WAL_MAGIC).putInt(LOG_VERSION);
+         header.flip();
+         wal.write(header, 0);
+         wal.truncate(HEADER_BYTES);
+      }
+      else
+         checkHeader(wal, WAL_MAGIC, LOG_VERSION);
+      wal.position(wal.size());
+   }
+
+   private File logFile(long number)
+   {
+      return new File(directory, name+".wal."+number);
+   }
+
+   private File snapshotFile()
+   {
+      return new File(directory, name+".snapshot");
+   }
+
+   // the logs in the directory by number
+   private TreeMap<Long, File> logs()
+   {
+      TreeMap<Long, File> logs = new TreeMap<>();
+      String prefix = name+".wal.";
+      File[] files = directory.listFiles();
+      if (files == null)
+         return logs;
+      for (File file : files)
+      {
+         String fileName = file.getName();
+         if (!fileName.startsWith(prefix))
+            continue;
+         try
+         {
+            logs.put(Long.parseLong(fileName.substring(prefix.length())), file);
+         }
+         catch (NumberFormatException e)
+         {
+            // not one of ours
+         }
+      }
+      return logs;
+   }
+
+   private void replay(File file) throws IOException
+   {
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      if (bytes.length < HEADER_BYTES)
+         return;
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int version;
+      if (buffer.getInt() != WAL_MAGIC || (version = buffer.getInt()) < VERSION || version > LOG_VERSION)
+         throw new IOException("Not a statistics log: "+file);
+      try
+      {
+         while (buffer.hasRemaining())
+         {
+            int player = getVarint(buffer);
+            int record = buffer.get();
+            int counter = record & ~SET;
+            if (record < 0 || counter >= COUNTERS)
+               throw new IOException("Corrupt statistics log "+file+" at byte "+buffer.position());
+            long[] counters = players.computeIfAbsent(player, id -> new Stats()).counters;
+            if ((record & SET) != 0)
+               counters[counter] = getVarlong(buffer);
+            else
+               counters[counter]++;
+         }
+      }
+      catch (BufferUnderflowException e)
+      {
+         // the last record was cut short
+      }
+   }
+
+   // returns the first log number the snapshot does not cover, 0 without a snapshot
+   private long readSnapshot() throws IOException
+   {
+      File file = snapshotFile();
+      if (!file.exists())
+         return 0;
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+      try
+      {
+         if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != VERSION)
+            throw new IOException("Not a statistics snapshot: "+file);
+         long covered = getVarlong(buffer);
+         int count = getVarint(buffer);
+         for (int i = 0; i < count; i++)
+         {
+            Stats stats = new Stats();
+            int player = getVarint(buffer);
+            for (int c = 0; c < COUNTERS; c++)
+            {
+               stats.counters[c] = getVarlong(buffer);
+            }
+            players.put(player, stats);
+         }
+         return covered;
+      }
+      catch (BufferUnderflowException e)
+      {
+         // snapshots are renamed into place whole, so this is damage rather than a crash
+         throw new IOException("Truncated statistics snapshot: "+file);
+      }
+   }
+
+   private void writeSnapshot(long covered, List<Integer> ids, List<long[]> counters) throws IOException
+   {
+      File temp = new File(directory, name+".snapshot.tmp");
+      try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_BYTES + 10*(COUNTERS+1));
+         buffer.putInt(SNAPSHOT_MAGIC).putInt(VERSION);
+         putVarint(buffer, covered);
+         putVarint(buffer, ids.size());
+         for (int i = 0; i < ids.size(); i++)
+         {
+            putVarint(buffer, ids.get(i));
+            for (long value : counters.get(i))
+            {
+               putVarint(buffer, value);
+            }
+            if (buffer.position() >= BATCH_BYTES)
+               write(channel, buffer);
+         }
+         write(channel, buffer);
+         channel.force(true);
+      }
+      Files.move(temp.toPath(), snapshotFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+
+   private static void checkHeader(FileChannel channel, int magic, int version) throws IOException
+   {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      channel.read(header, 0);
+      if (header.getInt(0) != magic || header.getInt(4) != version)
+         throw new IOException("Not a statistics file");
+   }
+
+   private static void putVarint(ByteBuffer buffer, long value)
+   {
+      while ((value & ~0x7FL) != 0)
+      {
+         buffer.put((byte)((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      buffer.put((byte)value);
+   }
+
+   private static void putVarint(ByteBuffer buffer, int value)
+   {
+      putVarint(buffer, value & 0xFFFFFFFFL);
+   }
+
+   private static long getVarlong(ByteBuffer buffer)
+   {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do
+      {
+         b = buffer.get();
+         value |= (long)(b & 0x7F) << shift;
+         shift += 7;
+      }
+      while (b < 0);
+      return value;
+   }
+
+   private static int getVarint(ByteBuffer buffer)
+   {
+      return (int)getVarlong(buffer);
+   }
+}
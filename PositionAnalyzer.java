@@ -0,0 +1,709 @@
+
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Answers best move, value and principal variation for many positions at once. Positions
+// are searched in parallel on a pool, every pool thread with its own NegamaxSearch and all
+// of them sharing one transposition table, and results come back in the order the
+// positions went in. At most maxInFlight positions are queued, running or waiting to be
+// handed back at any time, so a stream of any length runs in bounded memory.
+//
+// Text form of a position: [rows columns winLength] <squares> [X|O], one character per square
+// row by row, X, O or . (E, - and _ also mean empty). Without a size the board is square
+// with the usual win length, and without a side the one to move follows from the stone
+// counts. Binary form (Position.write and read): varint rows, columns and winLength, a byte
+// for the side to move, then the squares at 2 bits each, four to a byte, first in the low bits.
+//
+// A position whose search fails still gets an Analysis, with getError() set, in its place
+// in the order, so one bad position does not end a long run.
+//
+// java PositionAnalyzer [threads] [move-time-ms] [game-log]
+// analyses positions read a line at a time from standard input, or every position of every
+// game in a game log, printing one line per position.
+public class PositionAnalyzer implements AutoCloseable
+{
+   public static final int DEFAULT_TABLE_BITS = 20;
+   public static final int IN_FLIGHT_PER_THREAD = 4;
+
+   private final ExecutorService pool;
+   private final boolean ownPool;
+   private final int maxInFlight;
+   private final TranspositionTable table;
+   private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+   private volatile int searchDepth = NegamaxSearch.FULL_DEPTH;
+   // -1 searches boards up to FULL_SEARCH_CELLS to the end and gives larger ones the default
+   private volatile long moveTimeBudget = -1;
+   private volatile long moveNodeBudget = 0;
+
+   // a pool of its own with threads threads, shut down by close()
+   public PositionAnalyzer(int threads)
+   {
+      this(Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+         Thread thread = new Thread(runnable, "analyzer");
+         thread.setDaemon(true);
+         return thread;
+      }), Math.max(1, threads) * IN_FLIGHT_PER_THREAD, new TranspositionTable(DEFAULT_TABLE_BITS), true);
+   }
+
+   // runs on the caller's pool, which close() leaves running
+   public PositionAnalyzer(ExecutorService pool, int maxInFlight, TranspositionTable table)
+   {
+      this(pool, maxInFlight, table, false);
+   }
+
+   private PositionAnalyzer(ExecutorService pool, int maxInFlight, TranspositionTable table, boolean ownPool)
+   {
+      if (maxInFlight < 1)
+         throw new IllegalArgumentException("maxInFlight must be at least 1");
+      this.pool = pool;
+      this.maxInFlight = maxInFlight;
+      this.table = table;
+      this.ownPool = ownPool;
+   }
+
+   public int getMaxInFlight()
+   {
+      return maxInFlight;
+   }
+
+   public TranspositionTable getTranspositionTable()
+   {
+      return table;
+   }
+
+   // the same limits as ComputerMove's, applied to every position from now on
+   public void setSearchDepth(int depth)
+   {
+      searchDepth = Math.max(1, depth);
+   }
+
+   public int getSearchDepth()
+   {
+      return searchDepth;
+   }
+
+   public void setMoveTimeBudget(long millis)
+   {
+      moveTimeBudget = Math.max(0, millis);
+   }
+
+   public long getMoveTimeBudget()
+   {
+      return moveTimeBudget;
+   }
+
+   public void setMoveNodeBudget(long nodes)
+   {
+      moveNodeBudget = Math.max(0, nodes);
+   }
+
+   public long getMoveNodeBudget()
+   {
+      return moveNodeBudget;
+   }
+
+   // one position, searched on the calling thread
+   public Analysis analyze(Position position)
+   {
+      try
+      {
+         return workers.get().analyze(position);
+      }
+      catch (RuntimeException e)
+      {
+         // the worker may have been left half way through a search
+         workers.remove();
+         return new Analysis(position, e);
+      }
+   }
+
+   // Analyses of positions, in the same order. Positions are only taken from the source as
+   // results are taken from the stream, keeping maxInFlight of them ahead; closing the
+   // stream cancels the ones still in flight.
+   public Stream<Analysis> analyze(Stream<Position> positions)
+   {
+      Window window = new Window(positions.iterator());
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(window, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(window::cancel)
+            .onClose(positions::close);
+   }
+
+   // for sources that push positions, such as GameLog.read; see Session
+   public Session open(Consumer<Analysis> consumer)
+   {
+      return new Session(consumer);
+   }
+
+   @Override public void close()
+   {
+      if (ownPool)
+         pool.shutdownNow();
+   }
+
+   private Future<Analysis> submit(Position position)
+   {
+      return pool.submit(() -> analyze(position));
+   }
+
+   private static Analysis take(Future<Analysis> result)
+   {
+      try
+      {
+         return result.get();
+      }
+      catch (InterruptedException e)
+      {
+         result.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new CancellationException("Interrupted while waiting for an analysis");
+      }
+      catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException)e.getCause();
+         throw new IllegalStateException("Analysis failed", e.getCause());
+      }
+   }
+
+   private class Window implements Iterator<Analysis>
+   {
+      private final Iterator<Position> source;
+      private final ArrayDeque<Future<Analysis>> inFlight = new ArrayDeque<>();
+
+      Window(Iterator<Position> source)
+      {
+         this.source = source;
+      }
+
+      @Override public boolean hasNext()
+      {
+         fill();
+         return !inFlight.isEmpty();
+      }
+
+      @Override public Analysis next()
+      {
+         fill();
+         if (inFlight.isEmpty())
+            throw new NoSuchElementException();
+         return take(inFlight.poll());
+      }
+
+      private void fill()
+      {
+         while (inFlight.size() < maxInFlight && source.hasNext())
+         {
+            inFlight.add(submit(source.next()));
+         }
+      }
+
+      void cancel()
+      {
+         for (Future<Analysis> result : inFlight)
+         {
+            result.cancel(true);
+         }
+         inFlight.clear();
+      }
+   }
+
+   // Takes positions from one producer thread. submit() blocks while maxInFlight positions are
+   // unfinished or not yet handed back, and the consumer gets every analysis in submission
+   // order, on the thread calling submit() or close(); close() waits for the last of them.
+   public class Session implements AutoCloseable
+   {
+      private final Consumer<Analysis> consumer;
+      private final ArrayDeque<Future<Analysis>> inFlight = new ArrayDeque<>();
+
+      private Session(Consumer<Analysis> consumer)
+      {
+         this.consumer = consumer;
+      }
+
+      public void submit(Position position)
+      {
+         if (inFlight.size() == maxInFlight)
+            consumer.accept(take(inFlight.poll()));
+         inFlight.add(PositionAnalyzer.this.submit(position));
+      }
+
+      @Override public void close()
+      {
+         while (!inFlight.isEmpty())
+         {
+            consumer.accept(take(inFlight.poll()));
+         }
+      }
+   }
+
+   // scratch state of one pool thread
+   private class Worker
+   {
+      private final NegamaxSearch search = new NegamaxSearch();
+      private Board board = null;
+      private int[] moves = new int[0];
+
+      Analysis analyze(Position position)
+      {
+         BoardGeometry geometry = position.getGeometry();
+         if (board == null || board.getGeometry() != geometry)
+         {
+            board = new Board(geometry.getRows(), geometry.getCols(), geometry.getWinLength());
+            moves = new int[geometry.getCells()];
+         }
+         position.setUp(board);
+         Player player = position.getToMove();
+         if (board.checkIfWinner(player.getOtherColor()))
+            return new Analysis(position, -1, -NegamaxSearch.WIN_SCORE, 0, 0, new int[0]);
+         if (board.checkIfWinner(player))
+            return new Analysis(position, -1, NegamaxSearch.WIN_SCORE, 0, 0, new int[0]);
+         if (board.boardIsFull())
+            return new Analysis(position, -1, 0, 0, 0, new int[0]);
+
+         long time = moveTimeBudget;
+         if (time < 0)
+            time = geometry.getCells() > ComputerMove.FULL_SEARCH_CELLS ? ComputerMove.DEFAULT_MOVE_TIME_MILLIS : 0;
+         search.setTranspositionTable(table);
+         search.setMaxDepth(searchDepth);
+         search.setTimeBudget(time);
+         search.setNodeBudget(moveNodeBudget);
+         int best = search.findBestMove(player, board);
+         int length = search.principalVariation(player, board, moves);
+         return new Analysis(position, best, search.getBestScore(), search.getCompletedDepth(),
+               search.getNodes(), Arrays.copyOf(moves, length));
+      }
+   }
+
+   // A position and the side to move; immutable, so it can be handed between threads.
+   public static final class Position
+   {
+      private static final byte EMPTY = 0, X = 1, O = 2;
+
+      private final BoardGeometry geometry;
+      private final byte[] squares;
+      private final Player toMove;
+
+      private Position(BoardGeometry geometry, byte[] squares, Player toMove)
+      {
+         this.geometry = geometry;
+         this.squares = squares;
+         this.toMove = toMove;
+      }
+
+      public Position(Board board, Player toMove)
+      {
+         this(board.getGeometry(), new byte[board.getCells()], toMove);
+         if (toMove != Player.X && toMove != Player.O)
+            throw new IllegalArgumentException("No side to move");
+         for (int cell = 0; cell < squares.length; cell++)
+         {
+            squares[cell] = code(board.getValueAtCell(cell));
+         }
+      }
+
+      public static Position parse(String text)
+      {
+         String[] words = text.trim().split("\\s+");
+         int first = words.length >= 4 ? 3 : 0;
+         if (words.length - first < 1 || words.length - first > 2)
+            throw new IllegalArgumentException("Not a position: "+text);
+         String cells = words[first];
+         BoardGeometry geometry;
+         if (first > 0)
+         {
+            geometry = BoardGeometry.of(Integer.parseInt(words[0]), Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+            if (cells.length() != geometry.getCells())
+               throw new IllegalArgumentException("Expected "+geometry.getCells()+" squares: "+text);
+         }
+         else
+         {
+            int side = (int)Math.round(Math.sqrt(cells.length()));
+            if (side*side != cells.length())
+               throw new IllegalArgumentException("Not a square board, give its size: "+text);
+            geometry = defaultGeometry(side);
+         }
+
+         byte[] squares = new byte[cells.length()];
+         int xs = 0, os = 0;
+         for (int cell = 0; cell < squares.length; cell++)
+         {
+            switch (Character.toUpperCase(cells.charAt(cell)))
+            {
+               case 'X': squares[cell] = X; xs++; break;
+               case 'O': squares[cell] = O; os++; break;
+               case '.': case '-': case '_': case 'E': squares[cell] = EMPTY; break;
+               default:
+                  throw new IllegalArgumentException("Bad square '"+cells.charAt(cell)+"' in "+text);
+            }
+         }
+         Player toMove;
+         if (words.length - first == 2)
+         {
+            String side = words[first+1].toUpperCase();
+            if (!side.equals("X") && !side.equals("O"))
+               throw new IllegalArgumentException("Bad side to move: "+text);
+            toMove = side.equals("X") ? Player.X : Player.O;
+         }
+         else if (xs == os || xs == os+1)
+            toMove = xs == os ? Player.X : Player.O;
+         else
+            throw new IllegalArgumentException("Stone counts fit neither side to move: "+text);
+         return new Position(geometry, squares, toMove);
+      }
+
+      private static BoardGeometry defaultGeometry(int side)
+      {
+         return BoardGeometry.of(side, side, Math.min(Board.WIN_LENGTH, side));
+      }
+
+      public BoardGeometry getGeometry()
+      {
+         return geometry;
+      }
+
+      public Player getToMove()
+      {
+         return toMove;
+      }
+
+      public Player getValueAtCell(int cell)
+      {
+         return squares[cell] == X ? Player.X : squares[cell] == O ? Player.O : Player.EMPTY;
+      }
+
+      public int getStones()
+      {
+         int stones = 0;
+         for (byte square : squares)
+         {
+            if (square != EMPTY)
+               stones++;
+         }
+         return stones;
+      }
+
+      // puts the position on a board of the same size
+      public void setUp(Board board)
+      {
+         if (board.getGeometry() != geometry)
+            throw new IllegalArgumentException("The board is not "+geometry.getRows()+"x"+geometry.getCols());
+         board.refreshBoard();
+         for (int cell = 0; cell < squares.length; cell++)
+         {
+            if (squares[cell] != EMPTY)
+               board.setCell(getValueAtCell(cell), cell);
+         }
+      }
+
+      public void write(DataOutput out) throws IOException
+      {
+         writeVarint(out, geometry.getRows());
+         writeVarint(out, geometry.getCols());
+         writeVarint(out, geometry.getWinLength());
+         out.writeByte(code(toMove));
+         for (int cell = 0; cell < squares.length; cell += 4)
+         {
+            int packed = 0;
+            for (int i = 0; i < 4 && cell+i < squares.length; i++)
+            {
+               packed |= squares[cell+i] << (2*i);
+            }
+            out.writeByte(packed);
+         }
+      }
+
+      // the next position, or null at the end of the input
+      public static Position read(DataInput in) throws IOException
+      {
+         int rows;
+         try
+         {
+            rows = readVarint(in);
+         }
+         catch (EOFException e)
+         {
+            return null;
+         }
+         BoardGeometry geometry;
+         try
+         {
+            geometry = BoardGeometry.of(rows, readVarint(in), readVarint(in));
+         }
+         catch (IllegalArgumentException e)
+         {
+            throw new IOException("Bad board size in position", e);
+         }
+         int side = in.readUnsignedByte();
+         if (side != X && side != O)
+            throw new IOException("Bad side to move in position");
+         byte[] squares = new byte[geometry.getCells()];
+         for (int cell = 0; cell < squares.length; cell += 4)
+         {
+            int packed = in.readUnsignedByte();
+            for (int i = 0; i < 4 && cell+i < squares.length; i++)
+            {
+               squares[cell+i] = (byte)((packed >>> (2*i)) & 3);
+               if (squares[cell+i] > O)
+                  throw new IOException("Bad square in position");
+            }
+         }
+         return new Position(geometry, squares, side == X ? Player.X : Player.O);
+      }
+
+      private static byte code(Player player)
+      {
+         return player == Player.X ? X : player == Player.O ? O : EMPTY;
+      }
+
+      private static void writeVarint(DataOutput out, int value) throws IOException
+      {
+         while ((value & ~0x7F) != 0)
+         {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+         out.writeByte(value);
+      }
+
+      private static int readVarint(DataInput in) throws IOException
+      {
+         int value = 0;
+         int shift = 0;
+         int b;
+         do
+         {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+         }
+         while ((b & 0x80) != 0 && shift < 35);
+         return value;
+      }
+
+      @Override public boolean equals(Object other)
+      {
+         return other instanceof Position && ((Position)other).geometry == geometry
+               && ((Position)other).toMove == toMove && Arrays.equals(((Position)other).squares, squares);
+      }
+
+      @Override public int hashCode()
+      {
+         return Arrays.hashCode(squares) * 31 + toMove.hashCode();
+      }
+
+      // the text form; the size is left out when parse() would infer it
+      @Override public String toString()
+      {
+         StringBuilder out = new StringBuilder();
+         int rows = geometry.getRows();
+         if (rows != geometry.getCols() || defaultGeometry(rows) != geometry)
+            out.append(rows).append(' ').append(geometry.getCols()).append(' ').append(geometry.getWinLength()).append(' ');
+         for (byte square : squares)
+         {
+            out.append(square == X ? 'X' : square == O ? 'O' : '.');
+         }
+         return out.append(' ').append(toMove.getShortName()).toString();
+      }
+   }
+
+   // What the search found for one position. Scores are from the side to move, as
+   // NegamaxSearch gives them: a win in n plies is WIN_SCORE-n, a loss in n is -(WIN_SCORE-n).
+   public static final class Analysis
+   {
+      private final Position position;
+      private final int bestMove;
+      private final int score;
+      private final int depth;
+      private final long nodes;
+      private final int[] principalVariation;
+      private final Throwable error;
+
+      Analysis(Position position, int bestMove, int score, int depth, long nodes, int[] principalVariation)
+      {
+         this.position = position;
+         this.bestMove = bestMove;
+         this.score = score;
+         this.depth = depth;
+         this.nodes = nodes;
+         this.principalVariation = principalVariation;
+         this.error = null;
+      }
+
+      // a search that failed: no move, no value
+      Analysis(Position position, Throwable error)
+      {
+         this.position = position;
+         this.bestMove = -1;
+         this.score = 0;
+         this.depth = 0;
+         this.nodes = 0;
+         this.principalVariation = new int[0];
+         this.error = error;
+      }
+
+      public Position getPosition()
+      {
+         return position;
+      }
+
+      // what went wrong when the position could not be analysed, otherwise null
+      public Throwable getError()
+      {
+         return error;
+      }
+
+      // cell index, -1 when the game is already over or the analysis failed
+      public int getBestMove()
+      {
+         return bestMove;
+      }
+
+      public int getScore()
+      {
+         return score;
+      }
+
+      public int getDepth()
+      {
+         return depth;
+      }
+
+      public long getNodes()
+      {
+         return nodes;
+      }
+
+      // the best move and the expected replies, as cell indexes
+      public int[] getPrincipalVariation()
+      {
+         return principalVariation.clone();
+      }
+
+      // true when the score is a proven win, loss or draw rather than a heuristic guess
+      public boolean isExact()
+      {
+         return error == null && (Math.abs(score) > NegamaxSearch.WIN_THRESHOLD
+               || depth >= position.getGeometry().getCells() - position.getStones());
+      }
+
+      // plies until the end of a proven win or loss, -1 otherwise
+      public int getPliesToEnd()
+      {
+         return Math.abs(score) > NegamaxSearch.WIN_THRESHOLD ? NegamaxSearch.WIN_SCORE - Math.abs(score) : -1;
+      }
+
+      public String getValue()
+      {
+         if (score > NegamaxSearch.WIN_THRESHOLD)
+            return "win in "+getPliesToEnd();
+         if (score < -NegamaxSearch.WIN_THRESHOLD)
+            return "loss in "+getPliesToEnd();
+         if (isExact())
+            return "draw";
+         return String.format("%+d", score);
+      }
+
+      @Override public String toString()
+      {
+         StringBuilder out = new StringBuilder();
+         if (error != null)
+            return out.append(position).append(" |error: ").append(error).toString();
+         out.append(position).append(" |best: ").append(bestMove).append(" |value: ").append(getValue()).append(" |pv:");
+         for (int move : principalVariation)
+         {
+            out.append(' ').append(move);
+         }
+         return out.append(" |depth: ").append(depth).append(" |nodes: ").append(nodes).toString();
+      }
+   }
+
+   // a line that is not a position is reported and skipped rather than ending the run
+   private static Position parseOrReport(String line)
+   {
+      try
+      {
+         return Position.parse(line);
+      }
+      catch (IllegalArgumentException e)
+      {
+         System.err.println("skipped: "+e.getMessage());
+         return null;
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+      long[] count = new long[1];
+      long start = System.nanoTime();
+      try (PositionAnalyzer analyzer = new PositionAnalyzer(threads))
+      {
+         if (args.length > 1)
+            analyzer.setMoveTimeBudget(Long.parseLong(args[1]));
+         if (args.length > 2)
+         {
+            // every position before a move, labelled with the game, the ply and the move played
+            ArrayDeque<String> labels = new ArrayDeque<>();
+            long[] games = new long[1];
+            try (Session session = analyzer.open(analysis -> {
+               System.out.println(labels.poll()+" |"+analysis);
+               count[0]++;
+            }))
+            {
+               GameLog.read(new File(args[2]), (mode, xPlayer, oPlayer, result, timestamp, rows, columns, winLength, moves, moveCount) -> {
+                  Board board = new Board(rows, columns, winLength);
+                  Player player = Player.X;
+                  for (int ply = 0; ply < moveCount; ply++)
+                  {
+                     if (moves[ply] < 0)
+                     {
+                        player = player.getOtherColor();
+                        continue;
+                     }
+                     labels.add("game "+games[0]+" ply "+ply+" played "+moves[ply]);
+                     session.submit(new Position(board, player));
+                     board.setCell(player, moves[ply]);
+                     player = player.getOtherColor();
+                  }
+                  games[0]++;
+               });
+            }
+         }
+         else
+         {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            try (Stream<Analysis> results = analyzer.analyze(in.lines().filter(line -> !line.isBlank())
+                  .map(PositionAnalyzer::parseOrReport).filter(position -> position != null)))
+            {
+               results.forEach(analysis -> {
+                  System.out.println(analysis);
+                  count[0]++;
+               });
+            }
+         }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.err.println(String.format("positions: %d |threads: %d |time: %.2f s |positions/s: %.0f",
+            count[0], threads, seconds, count[0]/seconds));
+   }
+}
@@ -0,0 +1,29 @@
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Plays a uniformly random empty square; the baseline opponent for self-play runs.
+public class RandomMove implements MoveStrategy
+{
+   @Override public int chooseMove(Player player, Board board)
+   {
+      int empty = board.getCells() - board.getStones();
+      if (empty == 0)
+         return -1;
+      int pick = ThreadLocalRandom.current().nextInt(empty);
+      for (int w = 0; w < board.getWords(); w++)
+      {
+         long bits = board.getEmptyWord(w);
+         int count = Long.bitCount(bits);
+         if (pick < count)
+         {
+            for (; pick > 0; pick--)
+            {
+               bits &= bits-1;
+            }
+            return (w<<6) + Long.numberOfTrailingZeros(bits);
+         }
+         pick -= count;
+      }
+      return -1;
+   }
+}
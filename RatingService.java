@@ -0,0 +1,456 @@
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+
+// Elo ratings for every player id seen in finished games, with a leaderboard. Players are
+// dense int ids and everything lives in parallel primitive arrays (about 20 bytes a player),
+// so millions of players need only tens of megabytes.
+//
+// For the leaderboard each rated player sits in a bucket of width 1/BUCKETS_PER_POINT rating
+// points, in a doubly linked list threaded through int arrays. A Fenwick tree counts the
+// players per bucket, so the rank of a player and the next non-empty bucket from the top are
+// O(log buckets); top(n) takes O(n log buckets) plus sorting within the buckets it visits.
+//
+// java RatingService [log] [top-n] [threads]: rates every game in a game log and prints the leaders
+public class RatingService implements GameListener
+{
+   public static final double INITIAL_RATING = 1500.0;
+   public static final double MAX_RATING = 4000.0;
+   // K factor while a player has fewer than PROVISIONAL_GAMES games, and after
+   public static final double PROVISIONAL_K = 40.0, K = 20.0;
+   public static final int PROVISIONAL_GAMES = 30;
+
+   private static final int BUCKETS_PER_POINT = 100;
+   private static final int BUCKETS = (int)(MAX_RATING * BUCKETS_PER_POINT) + 1;
+   private static final int NONE = -1;
+   // a round of a bulk re-rating smaller than this is not worth splitting between threads
+   private static final int PARALLEL_ROUND = 4096;
+
+   private final StampedLock lock = new StampedLock();
+   private double[] ratings = new double[0];
+   private int[] games = new int[0];
+   // bucket lists: previous and next player in the same bucket, first player of each bucket
+   private int[] previous = new int[0];
+   private int[] next = new int[0];
+   private final int[] heads = new int[BUCKETS];
+   // Fenwick tree over bucket counts, 1-based
+   private final int[] tree = new int[BUCKETS + 1];
+   private int rated = 0;
+
+   public RatingService()
+   {
+      Arrays.fill(heads, NONE);
+   }
+
+   // rates each finished game; unfinished ones and games of a player with themselves are skipped
+   @Override public void gameEnded(Game game)
+   {
+      recordGame(game.getXPlayer(), game.getOPlayer(), game.getResult());
+   }
+
+   // result is one of the GameLog results
+   public void recordGame(int xPlayer, int oPlayer, int result)
+   {
+      if (result == GameLog.UNFINISHED || xPlayer == oPlayer)
+         return;
+      if (xPlayer < 0 || oPlayer < 0)
+         throw new IllegalArgumentException("Player ids must not be negative");
+      long stamp = lock.writeLock();
+      try
+      {
+         ensureCapacity(Math.max(xPlayer, oPlayer) + 1);
+         unlink(xPlayer);
+         unlink(oPlayer);
+         rate(xPlayer, oPlayer, result);
+         link(xPlayer);
+         link(oPlayer);
+      }
+      finally
+      {
+         lock.unlockWrite(stamp);
+      }
+   }
+
+   // Elo update of both players; the caller keeps the two of them to itself
+   private void rate(int xPlayer, int oPlayer, int result)
+   {
+      double x = ratings[xPlayer];
+      double o = ratings[oPlayer];
+      double expected = 1.0 / (1.0 + Math.pow(10.0, (o - x) / 400.0));
+      double score = result == GameLog.X_WINS ? 1.0 : result == GameLog.O_WINS ? 0.0 : 0.5;
+      ratings[xPlayer] = clamp(x + factor(xPlayer) * (score - expected));
+      ratings[oPlayer] = clamp(o + factor(oPlayer) * (expected - score));
+      games[xPlayer]++;
+      games[oPlayer]++;
+   }
+
+   private double factor(int player)
+   {
+      return games[player] < PROVISIONAL_GAMES ? PROVISIONAL_K : K;
+   }
+
+   private static double clamp(double rating)
+   {
+      return Math.max(0.0, Math.min(MAX_RATING, rating));
+   }
+
+   public double getRating(int player)
+   {
+      long stamp = lock.readLock();
+      try
+      {
+         return player < ratings.length ? ratings[player] : INITIAL_RATING;
+      }
+      finally
+      {
+         lock.unlockRead(stamp);
+      }
+   }
+
+   public int getGames(int player)
+   {
+      long stamp = lock.readLock();
+      try
+      {
+         return player < games.length ? games[player] : 0;
+      }
+      finally
+      {
+         lock.unlockRead(stamp);
+      }
+   }
+
+   // players with at least one rated game
+   public int getRatedPlayers()
+   {
+      long stamp = lock.readLock();
+      try
+      {
+         return rated;
+      }
+      finally
+      {
+         lock.unlockRead(stamp);
+      }
+   }
+
+   // 1 for the highest rating, 0 for a player with no rated games; players in the same
+   // bucket (ratings equal to a hundredth of a point) share a rank
+   public int getRank(int player)
+   {
+      long stamp = lock.readLock();
+      try
+      {
+         if (player >= games.length || games[player] == 0)
+            return 0;
+         return rated - prefix(bucket(ratings[player]) + 1) + 1;
+      }
+      finally
+      {
+         lock.unlockRead(stamp);
+      }
+   }
+
+   // the ids of the n highest rated players, best first
+   public int[] top(int n)
+   {
+      long stamp = lock.readLock();
+      try
+      {
+         int[] result = new int[Math.min(n, rated)];
+         int count = 0;
+         int seen = 0;
+         while (count < result.length)
+         {
+            // the bucket holding the (seen+1)-th best player
+            int bucket = find(rated - seen);
+            int start = count;
+            for (int p = heads[bucket]; p != NONE; p = next[p])
+            {
+               seen++;
+               if (count < result.length)
+                  result[count++] = p;
+               else
+               {
+                  // a full bucket may hold better players than the ones taken so far
+                  int worst = start;
+                  for (int i = start+1; i < count; i++)
+                  {
+                     if (better(result[worst], result[i]))
+                        worst = i;
+                  }
+                  if (better(p, result[worst]))
+                     result[worst] = p;
+               }
+            }
+            sort(result, start, count);
+         }
+         return result;
+      }
+      finally
+      {
+         lock.unlockRead(stamp);
+      }
+   }
+
+   private boolean better(int a, int b)
+   {
+      return ratings[a] > ratings[b] || ratings[a] == ratings[b] && a < b;
+   }
+
+   // insertion sort, best first; buckets hold a handful of players
+   private void sort(int[] players, int from, int to)
+   {
+      for (int i = from+1; i < to; i++)
+      {
+         int p = players[i];
+         int j = i;
+         while (j > from && better(p, players[j-1]))
+         {
+            players[j] = players[j-1];
+            j--;
+         }
+         players[j] = p;
+      }
+   }
+
+   private static int bucket(double rating)
+   {
+      return (int)(rating * BUCKETS_PER_POINT);
+   }
+
+   private void link(int player)
+   {
+      int bucket = bucket(ratings[player]);
+      previous[player] = NONE;
+      next[player] = heads[bucket];
+      if (heads[bucket] != NONE)
+         previous[heads[bucket]] = player;
+      heads[bucket] = player;
+      add(bucket + 1, 1);
+      rated++;
+   }
+
+   private void unlink(int player)
+   {
+      if (games[player] == 0)
+         return;
+      int bucket = bucket(ratings[player]);
+      if (previous[player] != NONE)
+         next[previous[player]] = next[player];
+      else
+         heads[bucket] = next[player];
+      if (next[player] != NONE)
+         previous[next[player]] = previous[player];
+      add(bucket + 1, -1);
+      rated--;
+   }
+
+   private void add(int index, int delta)
+   {
+      for (; index <= BUCKETS; index += index & -index)
+      {
+         tree[index] += delta;
+      }
+   }
+
+   // players in buckets 0..index-1
+   private int prefix(int index)
+   {
+      int sum = 0;
+      for (; index > 0; index -= index & -index)
+      {
+         sum += tree[index];
+      }
+      return sum;
+   }
+
+   // the bucket holding the k-th lowest rated player, k from 1
+   private int find(int k)
+   {
+      int index = 0;
+      for (int step = Integer.highestOneBit(BUCKETS); step > 0; step >>= 1)
+      {
+         if (index + step <= BUCKETS && tree[index + step] < k)
+         {
+            index += step;
+            k -= tree[index];
+         }
+      }
+      return index;
+   }
+
+   private void ensureCapacity(int players)
+   {
+      if (players <= ratings.length)
+         return;
+      int size = (int)Math.max(players, Math.min(Integer.MAX_VALUE - 8, Math.max(16, 2L * ratings.length)));
+      int old = ratings.length;
+      ratings = Arrays.copyOf(ratings, size);
+      Arrays.fill(ratings, old, size, INITIAL_RATING);
+      games = Arrays.copyOf(games, size);
+      previous = Arrays.copyOf(previous, size);
+      next = Arrays.copyOf(next, size);
+   }
+
+   // Rates every finished game of a game log in order, on top of the ratings already here,
+   // and returns the number of games rated. Games are grouped into rounds in which no player
+   // appears twice: a game goes in the round after the latest round of either player, so the
+   // games before it that share a player are all in earlier rounds. Rounds are rated one
+   // after another and the games inside a round in parallel, which gives exactly the ratings
+   // of rating the games one by one.
+   public long rateLog(File file, int threads) throws IOException
+   {
+      GameArrays log = new GameArrays();
+      GameLog.read(file, (mode, xPlayer, oPlayer, result, timestamp, rows, columns, winLength, moves, count) -> {
+         if (result != GameLog.UNFINISHED && xPlayer != oPlayer)
+            log.add(xPlayer, oPlayer, result);
+      });
+      long stamp = lock.writeLock();
+      try
+      {
+         int players = 0;
+         for (int i = 0; i < log.size; i++)
+         {
+            players = Math.max(players, Math.max(log.x[i], log.o[i]) + 1);
+         }
+         ensureCapacity(players);
+         rateRounds(log, threads);
+         // rebuild the leaderboard from scratch
+         Arrays.fill(heads, NONE);
+         Arrays.fill(tree, 0);
+         rated = 0;
+         for (int p = 0; p < ratings.length; p++)
+         {
+            if (games[p] > 0)
+               link(p);
+         }
+         return log.size;
+      }
+      finally
+      {
+         lock.unlockWrite(stamp);
+      }
+   }
+
+   private void rateRounds(GameArrays log, int threads) throws IOException
+   {
+      int n = log.size;
+      // round of each game, and the number of games per round
+      int[] round = new int[n];
+      int[] lastRound = new int[ratings.length];
+      int rounds = 0;
+      for (int i = 0; i < n; i++)
+      {
+         int r = Math.max(lastRound[log.x[i]], lastRound[log.o[i]]);
+         round[i] = r;
+         lastRound[log.x[i]] = lastRound[log.o[i]] = r + 1;
+         rounds = Math.max(rounds, r + 1);
+      }
+      lastRound = null;
+      int[] start = new int[rounds + 1];
+      for (int i = 0; i < n; i++)
+      {
+         start[round[i] + 1]++;
+      }
+      for (int r = 0; r < rounds; r++)
+      {
+         start[r + 1] += start[r];
+      }
+      int[] order = new int[n];
+      int[] fill = Arrays.copyOf(start, rounds);
+      for (int i = 0; i < n; i++)
+      {
+         order[fill[round[i]]++] = i;
+      }
+      round = null;
+      fill = null;
+
+      ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+      try
+      {
+         for (int r = 0; r < rounds; r++)
+         {
+            int from = start[r], to = start[r + 1];
+            if (pool == null || to - from < PARALLEL_ROUND)
+            {
+               for (int i = from; i < to; i++)
+               {
+                  int g = order[i];
+                  rate(log.x[g], log.o[g], log.result[g]);
+               }
+            }
+            else
+            {
+               pool.submit(() -> IntStream.range(from, to).parallel().forEach(i -> {
+                  int g = order[i];
+                  rate(log.x[g], log.o[g], log.result[g]);
+               })).get();
+            }
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while rating", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Rating failed", e.getCause());
+      }
+      finally
+      {
+         if (pool != null)
+            pool.shutdown();
+      }
+   }
+
+   // the rated games of a log as three growable columns
+   private static class GameArrays
+   {
+      int[] x = new int[1024];
+      int[] o = new int[1024];
+      byte[] result = new byte[1024];
+      int size = 0;
+
+      void add(int xPlayer, int oPlayer, int outcome)
+      {
+         if (size == x.length)
+         {
+            int length = (int)Math.min(Integer.MAX_VALUE - 8, 2L * size);
+            x = Arrays.copyOf(x, length);
+            o = Arrays.copyOf(o, length);
+            result = Arrays.copyOf(result, length);
+         }
+         x[size] = xPlayer;
+         o[size] = oPlayer;
+         result[size] = (byte)outcome;
+         size++;
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      File file = new File(args.length > 0 ? args[0] : GameLog.DEFAULT_FILE);
+      int n = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+      RatingService service = new RatingService();
+      long start = System.nanoTime();
+      long games = service.rateLog(file, threads);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("rated %d games of %d players in %.2f s with %d threads |games/s: %.0f",
+            games, service.getRatedPlayers(), seconds, threads, games/seconds));
+      int rank = 1;
+      for (int player : service.top(n))
+      {
+         System.out.println(String.format("%4d. player %d |rating: %.1f |games: %d |rank: %d",
+               rank++, player, service.getRating(player), service.getGames(player), service.getRank(player)));
+      }
+   }
+}
@@ -0,0 +1,131 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntSupplier;
+
+// Checks that the search path does not allocate once warmed up, and reports search speed.
+// Run with: java SearchBenchmark
+public class SearchBenchmark
+{
+   private static final int WARMUP = 20000;
+   private static final int ITERATIONS = 20000;
+   // a stray JIT event can show up as a few hundred bytes, so the best of several rounds counts
+   private static final int ROUNDS = 5;
+
+   private static final com.sun.management.ThreadMXBean THREADS =
+         (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+   public static void main(String[] args)
+   {
+      boolean failed = false;
+      Board empty = new Board();
+      Board midgame = midgame();
+      ComputerMove legacy = legacy();
+      ComputerMove computer = negamax();
+      NegamaxSearch bare = new NegamaxSearch();
+      failed |= run("minimax depth 2", () -> legacy.moveCell(Player.X, empty));
+      failed |= run("negamax, no TT", () -> bare.findBestMove(Player.X, empty));
+      failed |= run("negamax, no TT, midgame", () -> bare.findBestMove(Player.O, midgame));
+      failed |= run("negamax + TT", () -> computer.moveCell(Player.X, empty));
+      failed |= run("negamax + TT, midgame", () -> computer.moveCell(Player.O, midgame));
+      parallelSpeedup();
+      if (failed)
+      {
+         System.out.println("FAILED: the search allocated after warm-up");
+         System.exit(1);
+      }
+   }
+
+   // Solves 4x4 four-in-a-row positions from a cold table with 1, 2, 4 ... threads and
+   // checks that every thread count finds the same value.
+   private static void parallelSpeedup()
+   {
+      int cores = Runtime.getRuntime().availableProcessors();
+      System.out.println("Parallel search, 4x4 k=4, "+cores+" cores available");
+      Board[] positions = {new Board(4, 4, 4), new Board(4, 4, 4), new Board(4, 4, 4)};
+      positions[1].setBoard(Player.X, 1, 1);
+      positions[1].setBoard(Player.O, 2, 2);
+      positions[2].setBoard(Player.X, 0, 0);
+      positions[2].setBoard(Player.O, 1, 2);
+      double serial = 0;
+      int[] expected = new int[positions.length];
+      for (int threads = 1; threads <= Math.max(8, cores); threads *= 2)
+      {
+         long elapsed = 0;
+         long nodes = 0;
+         boolean same = true;
+         for (int p = 0; p < positions.length; p++)
+         {
+            NegamaxSearch search = new NegamaxSearch();
+            search.setTranspositionTable(new TranspositionTable(22));
+            search.setThreads(threads);
+            long start = System.nanoTime();
+            search.findBestMove(Player.X, positions[p]);
+            elapsed += System.nanoTime() - start;
+            nodes += search.getTotalNodes();
+            if (threads == 1)
+               expected[p] = search.getBestScore();
+            same &= search.getBestScore() == expected[p];
+            search.close();
+         }
+         if (threads == 1)
+            serial = elapsed;
+         System.out.println(String.format("  %2d threads %9.1f ms %12d nodes  speed-up %5.2fx  values %s",
+               threads, elapsed/1e6, nodes, serial/elapsed, same ? "match" : "DIFFER"));
+      }
+   }
+
+   private static ComputerMove legacy()
+   {
+      ComputerMove computer = new ComputerMove();
+      computer.setUseNegamax(false);
+      return computer;
+   }
+
+   private static ComputerMove negamax()
+   {
+      ComputerMove computer = new ComputerMove();
+      computer.setMoveTable(null);
+      return computer;
+   }
+
+   static Board midgame()
+   {
+      Board board = new Board();
+      board.setBoard(Player.X, 1, 1);
+      board.setBoard(Player.O, 0, 0);
+      board.setBoard(Player.X, 2, 2);
+      return board;
+   }
+
+   // returns true when the measured allocation is not zero
+   private static boolean run(String name, IntSupplier search)
+   {
+      int sink = 0;
+      for (int i = 0; i < WARMUP; i++)
+      {
+         sink += search.getAsInt();
+      }
+
+      long thread = Thread.currentThread().getId();
+      long overhead = THREADS.getThreadAllocatedBytes(thread);
+      overhead = THREADS.getThreadAllocatedBytes(thread) - overhead;
+
+      long allocated = Long.MAX_VALUE;
+      long elapsed = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++)
+      {
+         long start = System.nanoTime();
+         long before = THREADS.getThreadAllocatedBytes(thread);
+         for (int i = 0; i < ITERATIONS; i++)
+         {
+            sink += search.getAsInt();
+         }
+         allocated = Math.min(allocated, THREADS.getThreadAllocatedBytes(thread) - before - overhead);
+         elapsed = Math.min(elapsed, System.nanoTime() - start);
+      }
+
+      System.out.println(String.format("%-28s %10.2f us/search %8.2f bytes/search %8d bytes total (sink %d)",
+            name, elapsed/1000.0/ITERATIONS, (double)allocated/ITERATIONS, allocated, sink & 1));
+      return allocated > 0;
+   }
+}
@@ -0,0 +1,82 @@
+
+
+// Per-search scratch state, allocated once and reused for every search so that
+// the search itself never touches the heap.
+public class SearchContext
+{
+   final int[] killers;     // best move found at each ply, tried first next time
+   int bestMove = -1;
+   int bestScore = 0;
+   long nodes = 0;
+   long leafEvaluations = 0;
+   long cutoffs = 0;        // beta cutoffs in the move loop
+   int rootBest = -1;        // best root move so far in the current iteration
+   int completedDepth = 0;
+   boolean aborted = false;  // set when the budget runs out or the search is cancelled
+   boolean helper = false;   // a Lazy SMP helper thread rather than the main search
+   int orderOffset = 0;      // helpers rotate the move order to spread out over the tree
+   long ttProbes = 0;
+   long ttHits = 0;
+   long ttStores = 0;
+   long ttOverwrites = 0;
+
+   public SearchContext(int cells)
+   {
+      killers = new int[cells+1];
+   }
+
+   boolean fits(Board board)
+   {
+      return killers.length == board.getCells()+1;
+   }
+
+   void reset()
+   {
+      bestMove = -1;
+      bestScore = 0;
+      nodes = 0;
+      leafEvaluations = 0;
+      cutoffs = 0;
+      rootBest = -1;
+      completedDepth = 0;
+      aborted = false;
+      ttProbes = 0;
+      ttHits = 0;
+      ttStores = 0;
+      ttOverwrites = 0;
+      for (int i = 0; i < killers.length; i++)
+      {
+         killers[i] = -1;
+      }
+   }
+
+   public int getBestMove()
+   {
+      return bestMove;
+   }
+
+   public int getBestScore()
+   {
+      return bestScore;
+   }
+
+   public int getCompletedDepth()
+   {
+      return completedDepth;
+   }
+
+   public long getNodes()
+   {
+      return nodes;
+   }
+
+   public long getLeafEvaluations()
+   {
+      return leafEvaluations;
+   }
+
+   public long getCutoffs()
+   {
+      return cutoffs;
+   }
+}
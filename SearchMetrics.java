@@ -0,0 +1,347 @@
+
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Totals over every search reported to it: nodes, leaf evaluations, cutoffs, transposition
+// table probes and hits, depth reached and a latency histogram. A search counts into its own
+// SearchContext and adds the counts here once, when it ends, so the cost is per move and
+// not per node; a NegamaxSearch without metrics skips even that. ComputerMove also reports
+// the moves its move table or tablebase answers, so the latencies cover every move of the
+// negamax engine; moves from a MoveStrategy or the old minimax are not recorded. Safe to
+// share between threads.
+//
+// -Dtictactoe.metrics=<seconds> creates the default instance, which every NegamaxSearch
+// reports to, registers it over JMX and, for more than 0 seconds, dumps it to standard
+// error that often.
+public class SearchMetrics implements SearchMetricsMBean
+{
+   private static final SearchMetrics DEFAULT = createDefault();
+
+   // slots of a stripe's counters; the latency histogram, in nanoseconds, follows them
+   private static final int SEARCHES = 0, NODES = 1, LEAF_EVALUATIONS = 2, CUTOFFS = 3,
+         TT_PROBES = 4, TT_HITS = 5, DEPTH_SUM = 6, DEPTH_MAX = 7, LATENCY_SUM = 8, LATENCY_MAX = 9,
+         LOOKUPS = 10;
+   private static final int HISTOGRAM = 11;
+   // HDR-style buckets: values below SUB_COUNT each have their own, larger ones SUB_COUNT per
+   // power of two, so a latency is known to within 1/SUB_COUNT (3%) from 1 ns up
+   private static final int SUB_BITS = 5;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+   private static final int SLOTS = HISTOGRAM + BUCKETS;
+
+   private volatile boolean enabled = true;
+   // Threads record into one of STRIPES sets of counters, picked by thread, with atomic adds.
+   // A fixed set rather than one per thread keeps the memory and the cost of a new thread
+   // flat with one virtual thread per GameServer session; readers add the stripes up.
+   private static final int STRIPES = Math.min(64, 4*Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+   private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+   private ScheduledExecutorService timer = null;
+
+   public SearchMetrics()
+   {
+      for (int i = 0; i < STRIPES; i++)
+      {
+         stripes[i] = new AtomicLongArray(SLOTS);
+      }
+   }
+
+   // null unless -Dtictactoe.metrics is set
+   public static SearchMetrics getDefault()
+   {
+      return DEFAULT;
+   }
+
+   private static SearchMetrics createDefault()
+   {
+      String period = System.getProperty("tictactoe.metrics");
+      if (period == null)
+         return null;
+      SearchMetrics metrics = new SearchMetrics();
+      try
+      {
+         metrics.register("default");
+      }
+      catch (IllegalStateException e)
+      {
+         System.err.println("Could not register the search metrics: "+e.getMessage());
+      }
+      long seconds = period.isEmpty() ? 0 : Long.parseLong(period);
+      if (seconds > 0)
+         metrics.startDump(seconds * 1000, System.err);
+      return metrics;
+   }
+
+   public void register(String name)
+   {
+      try
+      {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("tictactoe:type=SearchMetrics,name="+name));
+      }
+      catch (JMException e)
+      {
+         throw new IllegalStateException(e.getMessage(), e);
+      }
+   }
+
+   // writes dump() to out every periodMillis, on a daemon thread, until stopDump()
+   public synchronized void startDump(long periodMillis, PrintStream out)
+   {
+      if (timer != null)
+         return;
+      timer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread thread = new Thread(r, "metrics-dump");
+         thread.setDaemon(true);
+         return thread;
+      });
+      timer.scheduleAtFixedRate(() -> out.println(dump()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+   }
+
+   public synchronized void stopDump()
+   {
+      if (timer != null)
+         timer.shutdown();
+      timer = null;
+   }
+
+   // the counters of a Lazy SMP helper's share of a search
+   void recordCounters(SearchContext ctx)
+   {
+      if (!enabled)
+         return;
+      AtomicLongArray stripe = stripe();
+      stripe.getAndAdd(NODES, ctx.nodes);
+      stripe.getAndAdd(LEAF_EVALUATIONS, ctx.leafEvaluations);
+      stripe.getAndAdd(CUTOFFS, ctx.cutoffs);
+      stripe.getAndAdd(TT_PROBES, ctx.ttProbes);
+      stripe.getAndAdd(TT_HITS, ctx.ttHits);
+   }
+
+   // a finished search: its counters, the depth it completed and how long it took
+   void recordSearch(SearchContext ctx, long nanos)
+   {
+      if (!enabled)
+         return;
+      AtomicLongArray stripe = stripe();
+      stripe.getAndAdd(NODES, ctx.nodes);
+      stripe.getAndAdd(LEAF_EVALUATIONS, ctx.leafEvaluations);
+      stripe.getAndAdd(CUTOFFS, ctx.cutoffs);
+      stripe.getAndAdd(TT_PROBES, ctx.ttProbes);
+      stripe.getAndAdd(TT_HITS, ctx.ttHits);
+      stripe.getAndAdd(SEARCHES, 1);
+      stripe.getAndAdd(DEPTH_SUM, ctx.completedDepth);
+      stripe.accumulateAndGet(DEPTH_MAX, ctx.completedDepth, Math::max);
+      recordLatency(stripe, nanos);
+   }
+
+   // a move answered from the move table or a tablebase without a search
+   void recordLookup(long nanos)
+   {
+      if (!enabled)
+         return;
+      AtomicLongArray stripe = stripe();
+      stripe.getAndAdd(LOOKUPS, 1);
+      recordLatency(stripe, nanos);
+   }
+
+   private static void recordLatency(AtomicLongArray stripe, long nanos)
+   {
+      nanos = Math.max(0, nanos);
+      stripe.getAndAdd(LATENCY_SUM, nanos);
+      stripe.accumulateAndGet(LATENCY_MAX, nanos, Math::max);
+      stripe.getAndAdd(HISTOGRAM + bucket(nanos), 1);
+   }
+
+   private AtomicLongArray stripe()
+   {
+      long id = Thread.currentThread().getId();
+      return stripes[(int)((id * 0x9E3779B97F4A7C15L) >>> 58) & (STRIPES-1)];
+   }
+
+   // every stripe's counters since the last reset, added up
+   private long[] snapshot()
+   {
+      long[] totals = new long[SLOTS];
+      for (AtomicLongArray stripe : stripes)
+      {
+         for (int i = 0; i < SLOTS; i++)
+         {
+            long value = stripe.get(i);
+            if (i == DEPTH_MAX || i == LATENCY_MAX)
+               totals[i] = Math.max(totals[i], value);
+            else
+               totals[i] += value;
+         }
+      }
+      return totals;
+   }
+
+   static int bucket(long value)
+   {
+      if (value < SUB_COUNT)
+         return (int)value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return ((shift + 1) << SUB_BITS) + (int)((value >>> shift) & (SUB_COUNT - 1));
+   }
+
+   // the largest value that falls in bucket
+   static long highest(int bucket)
+   {
+      if (bucket < SUB_COUNT)
+         return bucket;
+      int shift = (bucket >>> SUB_BITS) - 1;
+      long lowest = (long)(SUB_COUNT + (bucket & (SUB_COUNT - 1))) << shift;
+      return lowest + (1L << shift) - 1;
+   }
+
+   // the latency that percent of the searches took at most, in nanoseconds to the
+   // histogram's precision, and never above the slowest search
+   private static long percentile(long[] totals, double percent)
+   {
+      long count = totals[SEARCHES] + totals[LOOKUPS];
+      if (count == 0)
+         return 0;
+      long rank = Math.max(1, (long)Math.ceil(percent / 100.0 * count));
+      long seen = 0;
+      for (int b = 0; b < BUCKETS; b++)
+      {
+         seen += totals[HISTOGRAM + b];
+         if (seen >= rank)
+            return Math.min(highest(b), totals[LATENCY_MAX]);
+      }
+      return totals[LATENCY_MAX];
+   }
+
+   private static double ratio(long part, long whole)
+   {
+      return whole == 0 ? 0.0 : (double)part / whole;
+   }
+
+   @Override public boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   @Override public void setEnabled(boolean enabled)
+   {
+      this.enabled = enabled;
+   }
+
+   @Override public long getSearches()
+   {
+      return snapshot()[SEARCHES];
+   }
+
+   @Override public long getLookups()
+   {
+      return snapshot()[LOOKUPS];
+   }
+
+   @Override public long getNodes()
+   {
+      return snapshot()[NODES];
+   }
+
+   @Override public long getLeafEvaluations()
+   {
+      return snapshot()[LEAF_EVALUATIONS];
+   }
+
+   @Override public long getCutoffs()
+   {
+      return snapshot()[CUTOFFS];
+   }
+
+   @Override public long getTranspositionProbes()
+   {
+      return snapshot()[TT_PROBES];
+   }
+
+   @Override public long getTranspositionHits()
+   {
+      return snapshot()[TT_HITS];
+   }
+
+   @Override public double getTranspositionHitRate()
+   {
+      long[] totals = snapshot();
+      return ratio(totals[TT_HITS], totals[TT_PROBES]);
+   }
+
+   @Override public double getMeanDepth()
+   {
+      long[] totals = snapshot();
+      return ratio(totals[DEPTH_SUM], totals[SEARCHES]);
+   }
+
+   @Override public int getMaxDepth()
+   {
+      return (int)snapshot()[DEPTH_MAX];
+   }
+
+   @Override public double getLatencyMeanMicros()
+   {
+      long[] totals = snapshot();
+      return ratio(totals[LATENCY_SUM], totals[SEARCHES] + totals[LOOKUPS]) / 1000.0;
+   }
+
+   @Override public double getLatencyP50Micros()
+   {
+      return percentile(snapshot(), 50.0) / 1000.0;
+   }
+
+   @Override public double getLatencyP90Micros()
+   {
+      return percentile(snapshot(), 90.0) / 1000.0;
+   }
+
+   @Override public double getLatencyP99Micros()
+   {
+      return percentile(snapshot(), 99.0) / 1000.0;
+   }
+
+   @Override public double getLatencyP999Micros()
+   {
+      return percentile(snapshot(), 99.9) / 1000.0;
+   }
+
+   @Override public double getLatencyMaxMicros()
+   {
+      return snapshot()[LATENCY_MAX] / 1000.0;
+   }
+
+   // a search recorded while this runs may be counted partly before and partly after it
+   @Override public void reset()
+   {
+      for (AtomicLongArray stripe : stripes)
+      {
+         for (int i = 0; i < SLOTS; i++)
+         {
+            stripe.set(i, 0);
+         }
+      }
+   }
+
+   @Override public String dump()
+   {
+      return toString();
+   }
+
+   public String toString()
+   {
+      long[] t = snapshot();
+      return String.format("searches: %d |table lookups: %d |nodes: %d |nodes/search: %.0f |leaf evaluations: %d |cutoffs: %d"
+            + " |TT probes: %d |TT hits: %.1f%% |depth: mean %.1f max %d%n"
+            + "latency us: mean %.1f |p50: %.1f |p90: %.1f |p99: %.1f |p99.9: %.1f |max: %.1f",
+            t[SEARCHES], t[LOOKUPS], t[NODES], ratio(t[NODES], t[SEARCHES]), t[LEAF_EVALUATIONS], t[CUTOFFS],
+            t[TT_PROBES], 100*ratio(t[TT_HITS], t[TT_PROBES]), ratio(t[DEPTH_SUM], t[SEARCHES]), t[DEPTH_MAX],
+            ratio(t[LATENCY_SUM], t[SEARCHES] + t[LOOKUPS]) / 1000.0, percentile(t, 50.0) / 1000.0, percentile(t, 90.0) / 1000.0,
+            percentile(t, 99.0) / 1000.0, percentile(t, 99.9) / 1000.0, t[LATENCY_MAX] / 1000.0);
+   }
+}
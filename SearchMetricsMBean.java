@@ -0,0 +1,48 @@
+
+
+// What SearchMetrics shows over JMX, as tictactoe:type=SearchMetrics,name=<name>.
+// Counts are since the last reset; latencies are per move, searched or looked up, in
+// microseconds.
+public interface SearchMetricsMBean
+{
+   boolean isEnabled();
+
+   void setEnabled(boolean enabled);
+
+   long getSearches();
+
+   // moves answered from the move table or a tablebase without a search
+   long getLookups();
+
+   long getNodes();
+
+   long getLeafEvaluations();
+
+   long getCutoffs();
+
+   long getTranspositionProbes();
+
+   long getTranspositionHits();
+
+   double getTranspositionHitRate();
+
+   double getMeanDepth();
+
+   int getMaxDepth();
+
+   double getLatencyMeanMicros();
+
+   double getLatencyP50Micros();
+
+   double getLatencyP90Micros();
+
+   double getLatencyP99Micros();
+
+   double getLatencyP999Micros();
+
+   double getLatencyMaxMicros();
+
+   void reset();
+
+   String dump();
+}
@@ -0,0 +1,279 @@
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless engine-vs-engine runner for regression runs. Every worker thread owns a Game
+// and its engines, and the per-thread tallies are added up at the end.
+//
+// java SelfPlay <games> <x-engine> <o-engine> [threads] [rows] [columns] [winLength]
+// engines: negamax[:depth], minimax, random, mcts[:playouts[:model-file]], learned[:model-file]
+// With -Dtictactoe.gamelog=<file> every game is appended to that GameLog, X as player 0
+// and O as player 1.
+public class SelfPlay
+{
+   private static final int CHUNK = 256;
+
+   private final int rows;
+   private final int columns;
+   private final int winLength;
+   private final String xEngine;
+   private final String oEngine;
+   private GameLog.Writer log = null;
+
+   private long xWins;
+   private long oWins;
+   private long draws;
+   private long[] lengths;
+   private long elapsedNanos;
+   private int threadsUsed;
+
+   public SelfPlay(String xEngine, String oEngine, int rows, int columns, int winLength)
+   {
+      this.xEngine = xEngine;
+      this.oEngine = oEngine;
+      this.rows = rows;
+      this.columns = columns;
+      this.winLength = winLength;
+      BoardGeometry.of(rows, columns, winLength);   // fail fast on a bad size
+   }
+
+   // builds the engine named by spec for one side of the given game
+   public static MoveStrategy createEngine(String spec, Game game)
+   {
+      String[] parts = spec.split(":");
+      switch (parts[0])
+      {
+         case "negamax":
+         {
+            ComputerMove computer = new ComputerMove();
+            if (parts.length > 1)
+               computer.setSearchDepth(Integer.parseInt(parts[1]));
+            else
+               computer.setMoveTimeBudget(game.getComputerTimeBudget());
+            return computer;
+         }
+         case "minimax":
+         {
+            ComputerMove computer = new ComputerMove();
+            computer.setUseNegamax(false);
+            return computer;
+         }
+         case "random":
+            return new RandomMove();
+         case "mcts":
+         {
+            MonteCarloTreeSearch mcts = new MonteCarloTreeSearch();
+            if (parts.length > 1)
+               mcts.setIterationBudget(Long.parseLong(parts[1]));
+            if (parts.length > 2)
+               mcts.setValueModel(loadModel(parts[2]));
+            return mcts;
+         }
+         case "learned":
+            return new LearnedStrategy(loadModel(parts.length > 1 ? parts[1] : LearnedModel.DEFAULT_FILE));
+         default:
+            throw new IllegalArgumentException("Unknown engine: "+spec);
+      }
+   }
+
+   private static LearnedModel loadModel(String file)
+   {
+      try
+      {
+         return LearnedModel.load(new File(file));
+      }
+      catch (IOException e)
+      {
+         throw new IllegalArgumentException("Could not load "+file+": "+e.getMessage(), e);
+      }
+   }
+
+   // null for no log
+   public void setGameLog(GameLog.Writer log)
+   {
+      this.log = log;
+   }
+
+   public void run(long games, int threads)
+   {
+      threadsUsed = Math.max(1, threads);
+      AtomicLong next = new AtomicLong();
+      Worker[] workers = new Worker[threadsUsed];
+      long start = System.nanoTime();
+      for (int i = 0; i < threadsUsed; i++)
+      {
+         workers[i] = new Worker(games, next);
+         workers[i].start();
+      }
+      xWins = oWins = draws = 0;
+      lengths = new long[rows*columns+1];
+      for (Worker worker : workers)
+      {
+         try
+         {
+            worker.join();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         if (worker.failure != null)
+            throw new IllegalStateException("Self-play worker failed", worker.failure);
+         xWins += worker.xWins;
+         oWins += worker.oWins;
+         draws += worker.draws;
+         for (int i = 0; i < lengths.length; i++)
+         {
+            lengths[i] += worker.lengths[i];
+         }
+      }
+      elapsedNanos = System.nanoTime() - start;
+   }
+
+   public long getGames()
+   {
+      return xWins + oWins + draws;
+   }
+
+   public long getXWins()
+   {
+      return xWins;
+   }
+
+   public long getOWins()
+   {
+      return oWins;
+   }
+
+   public long getDraws()
+   {
+      return draws;
+   }
+
+   // lengths[n] is how many games ended after n moves
+   public long[] getLengths()
+   {
+      return lengths.clone();
+   }
+
+   public double getGamesPerSecond()
+   {
+      return elapsedNanos == 0 ? 0.0 : getGames() * 1e9 / elapsedNanos;
+   }
+
+   public String toString()
+   {
+      long games = getGames();
+      StringBuilder out = new StringBuilder();
+      out.append(rows).append('x').append(columns).append(" k=").append(winLength)
+            .append("  X: ").append(xEngine).append("  O: ").append(oEngine).append('\n');
+      out.append(String.format("games: %d |threads: %d |time: %.2f s |games/s: %.0f%n",
+            games, threadsUsed, elapsedNanos/1e9, getGamesPerSecond()));
+      out.append(String.format("X won: %d (%.2f%%) |O won: %d (%.2f%%) |tied: %d (%.2f%%)%n",
+            xWins, percent(xWins, games), oWins, percent(oWins, games), draws, percent(draws, games)));
+      long moves = 0;
+      out.append("length:");
+      for (int i = 0; i < lengths.length; i++)
+      {
+         moves += i*lengths[i];
+         if (lengths[i] != 0)
+            out.append(' ').append(i).append('=').append(lengths[i]);
+      }
+      out.append(String.format("%nmean length: %.2f", games == 0 ? 0.0 : (double)moves/games));
+      return out.toString();
+   }
+
+   private static double percent(long part, long whole)
+   {
+      return whole == 0 ? 0.0 : 100.0*part/whole;
+   }
+
+   private class Worker extends Thread
+   {
+      private final long games;
+      private final AtomicLong next;
+      long xWins;
+      long oWins;
+      long draws;
+      final long[] lengths = new long[rows*columns+1];
+      Throwable failure;
+
+      Worker(long games, AtomicLong next)
+      {
+         super("self-play");
+         this.games = games;
+         this.next = next;
+      }
+
+      @Override public void run()
+      {
+         try
+         {
+            Game game = new Game(rows, columns, winLength);
+            game.setMode(GameLog.SELF_PLAY);
+            game.setPlayers(0, 1);
+            if (log != null)
+               game.addGameListener(log);
+            MoveStrategy x = createEngine(xEngine, game);
+            MoveStrategy o = createEngine(oEngine, game);
+            long first;
+            // games are handed out in chunks to keep the shared counter cold
+            while ((first = next.getAndAdd(CHUNK)) < games)
+            {
+               long last = Math.min(games, first + CHUNK);
+               for (long g = first; g < last; g++)
+               {
+                  play(game, x, o);
+               }
+            }
+         }
+         catch (Throwable t)
+         {
+            failure = t;
+         }
+      }
+
+      private void play(Game game, MoveStrategy x, MoveStrategy o)
+      {
+         game.newGame();
+         Player player = Player.X;
+         while (game.playGame(player, player == Player.X ? x : o))
+         {
+            player = player.getOtherColor();
+         }
+         if (game.gameIsTie())
+            draws++;
+         else if (game.getGameWinner() == Player.X)
+            xWins++;
+         else
+            oWins++;
+         lengths[game.getBoard().getStones()]++;
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 3)
+      {
+         System.out.println("usage: java SelfPlay <games> <x-engine> <o-engine> [threads] [rows] [columns] [winLength]");
+         System.out.println("engines: negamax[:depth], minimax, random, mcts[:playouts[:model-file]], learned[:model-file]");
+         return;
+      }
+      long games = Long.parseLong(args[0]);
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+      int rows = args.length > 4 ? Integer.parseInt(args[4]) : Board.ROWS;
+      int columns = args.length > 5 ? Integer.parseInt(args[5]) : rows;
+      int winLength = args.length > 6 ? Integer.parseInt(args[6]) : Math.min(Board.WIN_LENGTH, Math.max(rows, columns));
+      SelfPlay selfPlay = new SelfPlay(args[1], args[2], rows, columns, winLength);
+      String logFile = System.getProperty("tictactoe.gamelog");
+      GameLog.Writer log = logFile != null ? new GameLog.Writer(new File(logFile)) : null;
+      selfPlay.setGameLog(log);
+      selfPlay.run(games, threads);
+      if (log != null)
+         log.close();
+      System.out.println(selfPlay);
+   }
+}
@@ -0,0 +1,287 @@
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Learns a LearnedModel by playing it against itself. Each worker thread plays whole games,
+// exploring with a random move now and then, and at the end of a game walks back over it
+// with TD(0) updates: the last position is moved towards the result, every earlier one
+// towards minus the value of the position that followed it. The workers share the model's
+// weight array and update it without locks, Hogwild style.
+//
+// java SelfPlayTrainer <games> [threads] [rows] [columns] [winLength] [model-file]
+// trains a new model (or continues one already in model-file), saves it and plays it
+// against the random and negamax engines.
+public class SelfPlayTrainer
+{
+   public static final double DEFAULT_EXPLORATION = 0.1;
+   public static final float TABULAR_STEP = 0.2f, LINEAR_STEP = 0.01f;
+   private static final int CHUNK = 256;
+
+   private final LearnedModel model;
+   private double exploration = DEFAULT_EXPLORATION;
+   private float step;
+   private long games;
+   private long elapsedNanos;
+   private int threadsUsed;
+
+   public SelfPlayTrainer(LearnedModel model)
+   {
+      this.model = model;
+      step = model.getKind() == LearnedModel.TABULAR ? TABULAR_STEP : LINEAR_STEP;
+   }
+
+   public LearnedModel getModel()
+   {
+      return model;
+   }
+
+   // chance of a random move instead of the best one
+   public void setExploration(double exploration)
+   {
+      this.exploration = exploration;
+   }
+
+   public void setStep(float step)
+   {
+      this.step = step;
+   }
+
+   public void train(long count, int threads)
+   {
+      threadsUsed = Math.max(1, threads);
+      AtomicLong next = new AtomicLong();
+      Worker[] workers = new Worker[threadsUsed];
+      long start = System.nanoTime();
+      for (int i = 0; i < threadsUsed; i++)
+      {
+         workers[i] = new Worker(count, next, i);
+         workers[i].start();
+      }
+      for (Worker worker : workers)
+      {
+         try
+         {
+            worker.join();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         if (worker.failure != null)
+            throw new IllegalStateException("Training worker failed", worker.failure);
+      }
+      elapsedNanos = System.nanoTime() - start;
+      games = count;
+   }
+
+   public double getGamesPerSecond()
+   {
+      return elapsedNanos == 0 ? 0.0 : games * 1e9 / elapsedNanos;
+   }
+
+   // the threads share the machine's cores, so more threads than cores add nothing
+   public double getGamesPerSecondPerCore()
+   {
+      return getGamesPerSecond() / Math.min(threadsUsed, Runtime.getRuntime().availableProcessors());
+   }
+
+   public String toString()
+   {
+      BoardGeometry geometry = model.getGeometry();
+      return String.format("%dx%d k=%d %s model, %d weights%n"
+            + "games: %d |threads: %d |time: %.2f s |games/s: %.0f |games/s per core: %.0f",
+            geometry.getRows(), geometry.getCols(), geometry.getWinLength(),
+            model.getKind() == LearnedModel.TABULAR ? "tabular" : "linear", model.getWeightCount(),
+            games, threadsUsed, elapsedNanos/1e9, getGamesPerSecond(), getGamesPerSecondPerCore());
+   }
+
+   private class Worker extends Thread
+   {
+      private final long count;
+      private final AtomicLong next;
+      private final SplittableRandom random;
+      private final BoardGeometry geometry = model.getGeometry();
+      private final Board board = new Board(geometry.getRows(), geometry.getCols(), geometry.getWinLength());
+      private final LearnedModel.Scorer scorer = model.new Scorer();
+      private final PositionBatch batch = new PositionBatch(model, geometry.getCells());
+      private final int[] cells = new int[geometry.getCells()];
+      // the positions of the game being played, as table indexes or feature vectors
+      private final int[] indexes = new int[geometry.getCells()];
+      private final float[][] features;
+      Throwable failure;
+
+      Worker(long count, AtomicLong next, int index)
+      {
+         super("trainer-"+index);
+         this.count = count;
+         this.next = next;
+         random = new SplittableRandom(index * 0x9E3779B97F4A7C15L + System.nanoTime());
+         features = new float[model.getKind() == LearnedModel.LINEAR ? geometry.getCells() : 0]
+               [LearnedModel.features(geometry.getWinLength())];
+      }
+
+      @Override public void run()
+      {
+         try
+         {
+            long first;
+            while ((first = next.getAndAdd(CHUNK)) < count)
+            {
+               long last = Math.min(count, first + CHUNK);
+               for (long g = first; g < last; g++)
+               {
+                  play();
+               }
+            }
+         }
+         catch (Throwable t)
+         {
+            failure = t;
+         }
+      }
+
+      private void play()
+      {
+         board.refreshBoard();
+         Player player = Player.X;
+         int plies = 0;
+         float result = 0f;
+         while (true)
+         {
+            scorer.begin(board, player);
+            int cell = random.nextDouble() < exploration ? randomMove() : bestMove();
+            boolean win = scorer.wins(cell);
+            if (model.getKind() == LearnedModel.TABULAR)
+               indexes[plies] = scorer.index(cell);
+            else
+               System.arraycopy(scorer.features(cell), 0, features[plies], 0, features[plies].length);
+            plies++;
+            board.setCell(player, cell);
+            if (win || board.boardIsFull())
+            {
+               result = win ? 1f : 0f;
+               break;
+            }
+            player = player.getOtherColor();
+         }
+         // back from the end: each position is worth minus what the reply got
+         float target = result;
+         for (int t = plies-1; t >= 0; t--)
+         {
+            float value;
+            if (model.getKind() == LearnedModel.TABULAR)
+            {
+               model.updateTable(indexes[t], target, step);
+               value = model.weights[indexes[t]];
+            }
+            else
+            {
+               model.updateLinear(features[t], target, step);
+               value = model.value(features[t]);
+            }
+            target = t == plies-1 ? -result : -value;
+         }
+      }
+
+      // values every move; equal values are
+      // picked between at random so an untrained model still explores
+      private int bestMove()
+      {
+         batch.clear();
+         int count = 0;
+         for (int w = 0; w < board.getWords(); w++)
+         {
+            for (long bits = board.getEmptyWord(w); bits != 0; bits &= bits-1)
+            {
+               int cell = (w<<6) + Long.numberOfTrailingZeros(bits);
+               cells[count++] = cell;
+               batch.add(scorer, cell);
+            }
+         }
+         float[] values = batch.evaluate();
+         int best = -1;
+         float bestValue = Float.NEGATIVE_INFINITY;
+         int ties = 0;
+         for (int i = 0; i < count; i++)
+         {
+            if (values[i] > bestValue)
+            {
+               bestValue = values[i];
+               best = i;
+               ties = 1;
+            }
+            else if (values[i] == bestValue && random.nextInt(++ties) == 0)
+               best = i;
+         }
+         return cells[best];
+      }
+
+      private int randomMove()
+      {
+         int pick = random.nextInt(board.getCells() - board.getStones());
+         for (int w = 0; w < board.getWords(); w++)
+         {
+            long bits = board.getEmptyWord(w);
+            int bitCount = Long.bitCount(bits);
+            if (pick < bitCount)
+            {
+               for (; pick > 0; pick--)
+               {
+                  bits &= bits-1;
+               }
+               return (w<<6) + Long.numberOfTrailingZeros(bits);
+            }
+            pick -= bitCount;
+         }
+         throw new IllegalStateException("No empty square");
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 1)
+      {
+         System.out.println("usage: java SelfPlayTrainer <games> [threads] [rows] [columns] [winLength] [model-file]");
+         return;
+      }
+      long games = Long.parseLong(args[0]);
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      int rows = args.length > 2 ? Integer.parseInt(args[2]) : Board.ROWS;
+      int columns = args.length > 3 ? Integer.parseInt(args[3]) : rows;
+      int winLength = args.length > 4 ? Integer.parseInt(args[4]) : Math.min(Board.WIN_LENGTH, Math.max(rows, columns));
+      File file = new File(args.length > 5 ? args[5] : LearnedModel.DEFAULT_FILE);
+
+      LearnedModel model = LearnedModel.create(rows, columns, winLength);
+      if (file.exists())
+      {
+         LearnedModel saved = LearnedModel.load(file);
+         if (saved.getGeometry() == model.getGeometry())
+         {
+            model = saved;
+            System.out.println("Continuing "+file);
+         }
+      }
+      SelfPlayTrainer trainer = new SelfPlayTrainer(model);
+      trainer.train(games, threads);
+      System.out.println(trainer);
+      model.save(file);
+      System.out.println("Wrote "+file+" ("+file.length()+" bytes)");
+
+      // how it plays, greedily, from both sides
+      long evaluation = Math.max(100, Math.min(10000, games/10));
+      String learned = "learned:"+file;
+      String searcher = rows*columns <= ComputerMove.FULL_SEARCH_CELLS ? "negamax" : "negamax:2";
+      for (String[] pairing : new String[][] {{learned, "random"}, {"random", learned}, {learned, searcher}, {searcher, learned}})
+      {
+         SelfPlay selfPlay = new SelfPlay(pairing[0], pairing[1], rows, columns, winLength);
+         selfPlay.run(pairing[0].equals(searcher) || pairing[1].equals(searcher) ? Math.min(evaluation, 200) : evaluation, threads);
+         System.out.println(String.format("X: %s  O: %s  X won: %.1f%% |O won: %.1f%% |tied: %.1f%%",
+               pairing[0], pairing[1], 100.0*selfPlay.getXWins()/selfPlay.getGames(),
+               100.0*selfPlay.getOWins()/selfPlay.getGames(), 100.0*selfPlay.getDraws()/selfPlay.getGames()));
+      }
+   }
+}
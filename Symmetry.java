@@ -0,0 +1,76 @@
+
+
+
+public class Symmetry
+{
+   private Symmetry()
+   {
+   }
+
+   // Cell permutations for the symmetries of a rows x cols board: all eight rotations
+   // and reflections of a square board, or the four that keep a rectangle's shape.
+   static int[][] permutations(int rows, int cols)
+   {
+      int[] kinds = rows == cols ? new int[] {0, 1, 2, 3, 4, 5, 6, 7} : new int[] {0, 2, 4, 5};
+      int[][] result = new int[kinds.length][rows*cols];
+      for (int s = 0; s < kinds.length; s++)
+      {
+         for (int r = 0; r < rows; r++)
+         {
+            for (int c = 0; c < cols; c++)
+            {
+               int tr, tc;
+               switch (kinds[s])
+               {
+                  case 1:  tr = c;        tc = rows-1-r; break;   // rotate 90
+                  case 2:  tr = rows-1-r; tc = cols-1-c; break;   // rotate 180
+                  case 3:  tr = cols-1-c; tc = r;        break;   // rotate 270
+                  case 4:  tr = r;        tc = cols-1-c; break;   // mirror left/right
+                  case 5:  tr = rows-1-r; tc = c;        break;   // mirror top/bottom
+                  case 6:  tr = c;        tc = r;        break;   // main diagonal
+                  case 7:  tr = cols-1-c; tc = rows-1-r; break;   // anti diagonal
+                  default: tr = r;        tc = c;        break;   // identity
+               }
+               result[s][r*cols+c] = tr*cols+tc;
+            }
+         }
+      }
+      return result;
+   }
+
+   // Smallest Zobrist hash of the position over all symmetries of the board (60 bits),
+   // with the side to move folded in; the symmetry that produced it is packed into the
+   // low 3 bits. The board keeps the symmetric hashes up to date, so this is O(1) per call.
+   public static long canonicalKey(Board board, Player toMove)
+   {
+      long side = toMove == Player.O ? 1L : 0L;
+      int symmetries = board.getGeometry().symmetries.length;
+      long best = Long.MAX_VALUE;
+      int bestSymmetry = 0;
+      for (int s = 0; s < symmetries; s++)
+      {
+         long key = board.getSymmetryHash(s) >>> 4;
+         if (key < best)
+         {
+            best = key;
+            bestSymmetry = s;
+         }
+      }
+      return (((best << 1) | side) << 3) | bestSymmetry;
+   }
+
+   public static int symmetryOf(long canonicalKey)
+   {
+      return (int)(canonicalKey & 7);
+   }
+
+   public static int toCanonical(BoardGeometry geometry, int cell, int symmetry)
+   {
+      return geometry.symmetries[symmetry][cell];
+   }
+
+   public static int fromCanonical(BoardGeometry geometry, int cell, int symmetry)
+   {
+      return geometry.inverses[symmetry][cell];
+   }
+}
@@ -0,0 +1,468 @@
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Perfect-play table for boards past MoveTable's 3x3, built by retrograde analysis: win, draw
+// or loss for the side to move in every position with a legal stone count, at 2 bits a
+// position in a memory-mapped file.
+//
+// Positions are numbered by a perfect ranking. The number of stones s comes first, then the
+// set of occupied squares (its colex rank, the sum of C(cell_i, i) over the squares in
+// order), then which of those s squares hold the X's (the same rank over their places among
+// the occupied squares). X moves first, so s also fixes the number of X's and the side to
+// move. 4x4 has 10,165,779 such positions against 43 million base-3 codes, 2.4 MB in all.
+//
+// Every move adds a stone, so positions with s stones only lead to positions with s+1.
+// Generation solves the full boards first and works back to the empty one, one layer at a
+// time; inside a layer the positions are independent and are solved in parallel chunks.
+//
+// File: "TTB1", rows, columns and winLength as ints, then the values, four positions a byte
+// with the lowest rank in the low bits.
+//
+// java Tablebase [rows] [columns] [winLength] [file] [threads]
+// generates a table and reports its size, generation time and lookup latency.
+public class Tablebase
+{
+   public static final String DEFAULT_FILE = "tablebase.bin";
+   public static final int LOSS = MoveTable.LOSS, DRAW = MoveTable.DRAW, WIN = MoveTable.WIN;
+
+   private static final int MAGIC = 0x54544231;   // "TTB1"
+   private static final int HEADER_BYTES = 16;
+   // positions per parallel task; a multiple of 4 so no two tasks write the same byte
+   private static final int CHUNK = 1 << 14;
+   private static final long[][] BINOMIAL = new long[66][66];
+
+   static
+   {
+      for (int n = 0; n < BINOMIAL.length; n++)
+      {
+         BINOMIAL[n][0] = 1;
+         for (int k = 1; k <= n; k++)
+         {
+            BINOMIAL[n][k] = BINOMIAL[n-1][k-1] + BINOMIAL[n-1][k];
+         }
+      }
+   }
+
+   private final BoardGeometry geometry;
+   private final MappedByteBuffer entries;
+   // layerStart[s] is the rank of the first position with s stones; layerStart[cells+1] the count
+   private final long[] layerStart;
+   private final long[] lineMasks;
+   private final long full;
+
+   private Tablebase(BoardGeometry geometry, MappedByteBuffer entries)
+   {
+      this.geometry = geometry;
+      this.entries = entries;
+      layerStart = layers(geometry);
+      lineMasks = new long[geometry.lines.length];
+      for (int line = 0; line < lineMasks.length; line++)
+      {
+         for (int cell : geometry.lines[line])
+         {
+            lineMasks[line] |= 1L << cell;
+         }
+      }
+      full = geometry.cells == 64 ? -1L : (1L << geometry.cells) - 1;
+   }
+
+   private static long[] layers(BoardGeometry geometry)
+   {
+      long[] start = new long[geometry.cells + 2];
+      for (int s = 0; s <= geometry.cells; s++)
+      {
+         start[s+1] = start[s] + BINOMIAL[geometry.cells][s] * BINOMIAL[s][(s+1)/2];
+      }
+      return start;
+   }
+
+   // bytes of a table for the board, header included
+   public static long fileSize(BoardGeometry geometry)
+   {
+      return HEADER_BYTES + (layers(geometry)[geometry.cells+1] + 3) / 4;
+   }
+
+   // maps the table into memory; returns null when the file is missing or not a tablebase
+   public static Tablebase load(File file)
+   {
+      if (!file.isFile())
+         return null;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+      {
+         FileChannel channel = raf.getChannel();
+         if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+            return null;
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (buffer.getInt(0) != MAGIC)
+            return null;
+         BoardGeometry geometry = BoardGeometry.of(buffer.getInt(4), buffer.getInt(8), buffer.getInt(12));
+         if (geometry.cells > 64 || channel.size() != fileSize(geometry))
+            return null;
+         return new Tablebase(geometry, buffer);
+      }
+      catch (IOException | IllegalArgumentException e)
+      {
+         return null;
+      }
+   }
+
+   public BoardGeometry getGeometry()
+   {
+      return geometry;
+   }
+
+   public boolean fits(Board board)
+   {
+      return board.getGeometry() == geometry;
+   }
+
+   public long getPositions()
+   {
+      return layerStart[geometry.cells+1];
+   }
+
+   // rank of the position with X's on xs and O's on os, -1 if the stone counts are not
+   // ones X-moves-first play can reach
+   public long rank(long xs, long os)
+   {
+      long occupied = xs | os;
+      int s = Long.bitCount(occupied);
+      int x = Long.bitCount(xs);
+      if ((xs & os) != 0 || (occupied & ~full) != 0 || x != (s+1)/2)
+         return -1;
+      long occupiedRank = 0, xRank = 0;
+      int i = 0, t = 0;
+      for (long bits = occupied; bits != 0; bits &= bits-1, i++)
+      {
+         int cell = Long.numberOfTrailingZeros(bits);
+         occupiedRank += BINOMIAL[cell][i+1];
+         if ((xs >>> cell & 1) != 0)
+            xRank += BINOMIAL[i][++t];
+      }
+      return layerStart[s] + occupiedRank * BINOMIAL[s][x] + xRank;
+   }
+
+   // LOSS, DRAW or WIN for player, or -1 if the board is another size or it is not
+   // player's turn
+   public int value(Board board, Player player)
+   {
+      if (!fits(board) || player != MoveTable.sideToMove(board))
+         return -1;
+      long rank = rank(board.getBits(Player.X), board.getBits(Player.O));
+      return rank < 0 ? -1 : get(rank);
+   }
+
+   // Best cell for player, or -1 if the position is not in the table or the game is over.
+   // Wins on the spot come first, then moves in the board's move order; with no distance to
+   // mate in the table any winning move is as good as another, and the game still ends.
+   public int bestMove(Board board, Player player)
+   {
+      if (value(board, player) < 0 || board.checkIfWinner(player.getOtherColor()) || board.boardIsFull())
+         return -1;
+      long xs = board.getBits(Player.X), os = board.getBits(Player.O);
+      long mine = player == Player.X ? xs : os;
+      int best = -1, bestValue = -1;
+      for (int cell : geometry.moveOrder)
+      {
+         long bit = 1L << cell;
+         if (((xs | os) & bit) != 0)
+            continue;
+         if (hasLine(mine | bit))
+            return cell;
+         int reply = get(player == Player.X ? rank(xs | bit, os) : rank(xs, os | bit));
+         if (WIN - reply > bestValue)
+         {
+            bestValue = WIN - reply;
+            best = cell;
+         }
+      }
+      return best;
+   }
+
+   private int get(long rank)
+   {
+      return (entries.get(HEADER_BYTES + (int)(rank >>> 2)) >>> (2*(int)(rank & 3))) & 3;
+   }
+
+   private void put(long rank, int value)
+   {
+      int offset = HEADER_BYTES + (int)(rank >>> 2);
+      int shift = 2*(int)(rank & 3);
+      entries.put(offset, (byte)((entries.get(offset) & ~(3 << shift)) | (value << shift)));
+   }
+
+   private boolean hasLine(long stones)
+   {
+      for (long line : lineMasks)
+      {
+         if ((stones & line) == line)
+            return true;
+      }
+      return false;
+   }
+
+   public static Tablebase generate(int rows, int columns, int winLength, File file, int threads) throws IOException
+   {
+      BoardGeometry geometry = BoardGeometry.of(rows, columns, winLength);
+      if (geometry.cells > 64)
+         throw new IllegalArgumentException("Tablebases need a board of at most 64 squares");
+      long size = fileSize(geometry);
+      if (size > Integer.MAX_VALUE)
+         throw new IllegalArgumentException("A "+rows+"x"+columns+" tablebase would take "+size+" bytes");
+      MappedByteBuffer buffer;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+      {
+         raf.setLength(0);
+         raf.setLength(size);
+         buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+      Tablebase table = new Tablebase(geometry, buffer);
+
+      ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+      try
+      {
+         for (int s = geometry.cells; s >= 0; s--)
+         {
+            int layer = s;
+            long start = table.layerStart[s], end = table.layerStart[s+1];
+            // chunks start at multiples of CHUNK, so only the first and last are partial
+            long first = start / CHUNK;
+            int chunks = (int)((end - 1) / CHUNK - first + 1);
+            IntStream tasks = IntStream.range(0, chunks);
+            if (pool == null || chunks == 1)
+               tasks.forEach(c -> table.solve(layer, Math.max(start, (first+c) * CHUNK), Math.min(end, (first+c+1) * CHUNK)));
+            else
+               pool.submit(() -> tasks.parallel().forEach(c ->
+                     table.solve(layer, Math.max(start, (first+c) * CHUNK), Math.min(end, (first+c+1) * CHUNK)))).get();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while generating", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Generation failed", e.getCause());
+      }
+      finally
+      {
+         if (pool != null)
+            pool.shutdown();
+      }
+      // the header goes in last, so a table cut short by a crash is never loaded
+      buffer.putInt(4, rows);
+      buffer.putInt(8, columns);
+      buffer.putInt(12, winLength);
+      buffer.force();
+      buffer.putInt(0, MAGIC);
+      buffer.force();
+      return table;
+   }
+
+   // Solves the positions ranked from to to, all with s stones, from the values of the
+   // layer above. Stepping to the next rank is a step to the next subset in colex order
+   // (Gosper's hack), X's first and then the occupied squares. A child's rank comes from
+   // prefix sums of this position's rank terms in O(1): the new stone at place p among the
+   // occupied squares moves every later square up one place.
+   private void solve(int s, long from, long to)
+   {
+      int cells = geometry.cells;
+      int x = (s+1)/2;
+      boolean xToMove = (s & 1) == 0;
+      long xSets = BINOMIAL[s][x];
+      long childSets = BINOMIAL[s+1][(s+2)/2];
+      long childStart = s < cells ? layerStart[s+1] : 0;
+      long local = from - layerStart[s];
+      long occupied = unrank(local / xSets, s);
+      long xPlaces = unrank(local % xSets, x);
+
+      int[] squares = new int[s];
+      long[] before = new long[s+1], after = new long[s+1];
+      long[] xBefore = new long[x+1], xAfter = new long[x+1], xAfterUp = new long[x+1];
+      for (long rank = from; rank < to; rank++)
+      {
+         long xs = 0;
+         int i = 0;
+         for (long bits = occupied; bits != 0; bits &= bits-1, i++)
+         {
+            squares[i] = Long.numberOfTrailingZeros(bits);
+            if ((xPlaces >>> i & 1) != 0)
+               xs |= 1L << squares[i];
+         }
+         long mover = xToMove ? xs : occupied & ~xs;
+         long other = occupied ^ mover;
+
+         int value;
+         if (hasLine(other))
+            value = LOSS;
+         else if (hasLine(mover))
+            value = WIN;   // not reachable in play
+         else if (s == cells)
+            value = DRAW;
+         else if (canComplete(mover, other))
+            value = WIN;
+         else
+         {
+            for (i = 0; i < s; i++)
+            {
+               before[i+1] = before[i] + BINOMIAL[squares[i]][i+1];
+            }
+            for (i = s-1; i >= 0; i--)
+            {
+               after[i] = after[i+1] + BINOMIAL[squares[i]][i+2];
+            }
+            int t = 0;
+            for (long bits = xPlaces; bits != 0; bits &= bits-1, t++)
+            {
+               int place = Long.numberOfTrailingZeros(bits);
+               xBefore[t+1] = xBefore[t] + BINOMIAL[place][t+1];
+            }
+            for (t = x-1, i = s-1; t >= 0; i--)
+            {
+               if ((xPlaces >>> i & 1) != 0)
+               {
+                  xAfter[t] = xAfter[t+1] + BINOMIAL[i+1][t+1];
+                  xAfterUp[t] = xAfterUp[t+1] + BINOMIAL[i+1][t+2];
+                  t--;
+               }
+            }
+
+            value = LOSS;
+            for (long empty = ~occupied & full; empty != 0; empty &= empty-1)
+            {
+               int cell = Long.numberOfTrailingZeros(empty);
+               int p = Long.bitCount(occupied & ((1L << cell) - 1));
+               int q = Long.bitCount(xPlaces & ((1L << p) - 1));
+               long occupiedRank = before[p] + BINOMIAL[cell][p+1] + after[p];
+               long xRank = xToMove ? xBefore[q] + BINOMIAL[p][q+1] + xAfterUp[q] : xBefore[q] + xAfter[q];
+               int reply = get(childStart + occupiedRank * childSets + xRank);
+               if (reply == LOSS)
+               {
+                  value = WIN;
+                  break;
+               }
+               if (reply == DRAW)
+                  value = DRAW;
+            }
+         }
+         put(rank, value);
+
+         if (rank+1 < to)
+         {
+            xPlaces = nextSubset(xPlaces);
+            if (xPlaces >>> s != 0)
+            {
+               xPlaces = (1L << x) - 1;
+               occupied = nextSubset(occupied);
+            }
+         }
+      }
+   }
+
+   // true when one move completes a line for mover
+   private boolean canComplete(long mover, long other)
+   {
+      for (long line : lineMasks)
+      {
+         if ((line & other) == 0 && Long.bitCount(line & ~mover) == 1)
+            return true;
+      }
+      return false;
+   }
+
+   // the k-subset with the given colex rank, as a bit mask
+   private static long unrank(long rank, int k)
+   {
+      long mask = 0;
+      int c = 63;
+      for (int i = k; i >= 1; i--)
+      {
+         while (BINOMIAL[c][i] > rank)
+            c--;
+         mask |= 1L << c;
+         rank -= BINOMIAL[c][i];
+         c--;
+      }
+      return mask;
+   }
+
+   // next bit mask with the same number of bits set
+   private static long nextSubset(long v)
+   {
+      long t = v | (v - 1);
+      return (t + 1) | (((~t & -~t) - 1) >>> (Long.numberOfTrailingZeros(v) + 1));
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+      int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+      int winLength = args.length > 2 ? Integer.parseInt(args[2]) : Math.min(Board.WIN_LENGTH, Math.max(rows, columns));
+      File file = new File(args.length > 3 ? args[3] : DEFAULT_FILE);
+      int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+      long start = System.nanoTime();
+      Tablebase table = generate(rows, columns, winLength, file, threads);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      String[] names = {"loss", "draw", "win"};
+      Board board = new Board(rows, columns, winLength);
+      System.out.println(String.format("%dx%d k=%d: %d positions |%d bytes |threads: %d |time: %.2f s |positions/s: %.0f",
+            rows, columns, winLength, table.getPositions(), file.length(), threads, seconds, table.getPositions() / seconds));
+      System.out.println("X to move on the empty board: "+names[table.value(board, Player.X)]+", best move "+table.bestMove(board, Player.X));
+
+      // lookups of positions from random games, after a warm-up: a value is a rank and a
+      // read of the mapped file, a best move one of those per empty square
+      SplittableRandom random = new SplittableRandom(42);
+      int count = 1 << 16;
+      Board[] positions = new Board[count];
+      long[] xs = new long[count], os = new long[count];
+      for (int i = 0; i < count; i++)
+      {
+         positions[i] = new Board(rows, columns, winLength);
+         int stones = random.nextInt(board.getCells());
+         Player player = Player.X;
+         for (int n = 0; n < stones && !positions[i].checkIfWinner(player.getOtherColor()); n++)
+         {
+            int cell;
+            do
+            {
+               cell = random.nextInt(board.getCells());
+            }
+            while (!positions[i].isEmptyCell(cell));
+            positions[i].setCell(player, cell);
+            player = player.getOtherColor();
+         }
+         xs[i] = positions[i].getBits(Player.X);
+         os[i] = positions[i].getBits(Player.O);
+      }
+      long sink = 0;
+      double valueNanos = 0, moveNanos = 0;
+      for (int round = 0; round < 5; round++)
+      {
+         long t0 = System.nanoTime();
+         for (int i = 0; i < count; i++)
+         {
+            sink += table.get(table.rank(xs[i], os[i]));
+         }
+         long t1 = System.nanoTime();
+         for (Board position : positions)
+         {
+            sink += table.bestMove(position, MoveTable.sideToMove(position));
+         }
+         long t2 = System.nanoTime();
+         valueNanos = (double)(t1 - t0) / count;
+         moveNanos = (double)(t2 - t1) / count;
+      }
+      System.out.println(String.format("lookup: value %.0f ns |best move %.0f ns (%d)", valueNanos, moveNanos, sink & 1));
+   }
+}
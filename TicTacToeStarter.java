@@ -1,113 +1,54 @@
 
+import java.io.File;
+import java.io.IOException;
+import javax.swing.SwingUtilities;
 
 public class TicTacToeStarter
 {
-   public static void restart(GameGUI gameGUI, Game game)
-   {
-      game.getBoard().refreshBoard();
-      gameGUI.displayBoard(game.getBoard());
-      gameGUI.setResetGame(false);
-   }
-   public static void main(String[] args)
-   {
-      GameGUI gameGUI = new GameGUI();
-      Game game = new Game(gameGUI);
-
-     boolean go= true;
-     int playAgain=0;
-     do
-     {
-
-        while(go)
-        {
-           if(gameGUI.resetGame())
-           {
-              restart(gameGUI,game);
-           }
-
-           gameGUI.displayBoard(game.getBoard());
-           go = game.humanPlayGame(Player.X);
-           if(go)
-           {
-              if(gameGUI.resetGame())
-              {
-                 restart(gameGUI,game);
-              }
-
-
-              if(gameGUI.computerPlayer)
-              {
-                 go = game.computerPlayGame(Player.O);
-              }
-              else
-              {
-                 gameGUI.displayBoard(game.getBoard());
-                 go = game.humanPlayGame(Player.O);
-
-
-              }
-
-           }
-
-        }
-
-        if(game.gameIsTie())
-        {
-           gameGUI.displayBoard(game.getBoard());
-           if(gameGUI.computerPlayer)
-           {
-              gameGUI.account.setTiedWithComputer(gameGUI.account.getTiedWithComputer() + 1);
-           }
-           else
-           {
-              gameGUI.account.setTiedWithHuman(gameGUI.account.getTiedWithHuman() + 1);
-           }
-           playAgain = gameGUI.doYouWantToPlayAgain("The game is a tie");
-           if(playAgain==0)
-           {
-              game.getBoard().refreshBoard();
-              game.setTie(false);
-              go=true;
-           }
-           else
-              System.exit(0);
-        }
-        if(game.getWinner())
-        {
-           gameGUI.displayBoard(game.getBoard());
-
-           if(game.getGameWinner()==Player.O)
-           {
-              if(gameGUI.computerPlayer)
-              gameGUI.account.setComputerWin(gameGUI.account.getComputerWin() + 1);
-              else
-              gameGUI.account.setguestWin(gameGUI.account.getGuestWin() + 1);
-           }
-           else
-           {
-              if(gameGUI.computerPlayer)
-              {
-                 gameGUI.account.setNumberOfWinC(gameGUI.account.getNumberOfWinC() + 1);
-              }
-              else
-              {
-                 gameGUI.account.setNumberOfWin(gameGUI.account.getNumberOfWin() + 1);
-              }
-           }
-
-           playAgain = gameGUI.doYouWantToPlayAgain("the winner is: "+ game.getGameWinner());
-           if(playAgain==0)
-           {
-              game.getBoard().refreshBoard();
-              game.setWinner(false,Player.EMPTY);
-              go=true;
-           }
-           else
-              System.exit(0);
-        }
-        gameGUI.account.setNumberOfPlay(gameGUI.account.getNumberOfPlay()+1);
-
-     }while(playAgain==0);
+   private static final long STATS_SNAPSHOT_MILLIS = 60000;
 
+   // optional arguments: rows columns win-length, e.g. 15 15 5 for five in a row
+   public static void main(String[] args) throws IOException
+   {
+      int rows = args.length > 0 ? Integer.parseInt(args[0]) : Board.ROWS;
+      int columns = args.length > 1 ? Integer.parseInt(args[1]) : rows;
+      int winLength = args.length > 2 ? Integer.parseInt(args[2]) : Math.min(Board.WIN_LENGTH, Math.max(rows, columns));
+      BoardGeometry.of(rows, columns, winLength);   // fail fast on a bad size
+      File logFile = new File(System.getProperty("tictactoe.gamelog", GameLog.DEFAULT_FILE));
+      // opened first, as it repairs a damaged log
+      GameLog.Writer log = new GameLog.Writer(logFile);
+      // ratings are rebuilt from the games played so far and kept up to date from then on
+      RatingService ratings = new RatingService();
+      ratings.rateLog(logFile, Runtime.getRuntime().availableProcessors());
+      PlayerStatsStore stats = PlayerStatsStore.open(new File(System.getProperty("tictactoe.stats.dir", ".")),
+            System.getProperty("tictactoe.stats", PlayerStatsStore.DEFAULT_NAME));
+      stats.startSnapshots(STATS_SNAPSHOT_MILLIS);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+         try
+         {
+            log.close();
+         }
+         catch (IOException e)
+         {
+            e.printStackTrace();
+         }
+         try
+         {
+            stats.close();
+         }
+         catch (IOException e)
+         {
+            e.printStackTrace();
+         }
+      }));
+      // the window and the game state live on the event dispatch thread; main is done after this
+      SwingUtilities.invokeLater(() -> {
+         GameGUI gameGUI = new GameGUI(rows, columns);
+         gameGUI.account = new AccountInformation(stats, GameController.LOCAL_PLAYER);
+         Game game = new Game(gameGUI, rows, columns, winLength);
+         game.addGameListener(log);
+         game.addGameListener(ratings);
+         new GameController(game, gameGUI).start();
+      });
    }
 }
@@ -2,6 +2,9 @@
 
 public interface TicTacToeUI
 {
+   // returned by getUserMove when the wait was reset, cancelled or interrupted
+   int NO_MOVE = 0;
+
    void displayBoard(Board board);
    int getUserMove(Player player);
    boolean resetGame();
@@ -0,0 +1,165 @@
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared by every search thread without locking: each slot holds key^entry next to the
+// entry, so a slot torn by two concurrent writers simply fails the key check on probe.
+public class TranspositionTable
+{
+   public static final int EXACT = 0, LOWER_BOUND = 1, UPPER_BOUND = 2;
+   public static final int NO_MOVE = 0xFFFF;
+   public static final long STORED = 1, REPLACED = 2;
+
+   // entry layout: score:32 | bound:2 | depth:8 | move:16 | generation:5 | valid:1
+   private static final int BOUND_SHIFT = 32, DEPTH_SHIFT = 34, MOVE_SHIFT = 42, GENERATION_SHIFT = 58;
+   private static final long VALID = Long.MIN_VALUE;
+
+   // set on every stored key so that an all-zero slot is never mistaken for a position
+   private static final long USED = Long.MIN_VALUE;
+
+   private final long[] keys;
+   private final long[] data;
+   private final int shift;
+   private volatile int generation = 0;
+
+   // searches count locally and add their totals here when they finish
+   private final AtomicLong probes = new AtomicLong();
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong stores = new AtomicLong();
+   private final AtomicLong overwrites = new AtomicLong();
+
+   public TranspositionTable(int log2Entries)
+   {
+      log2Entries = Math.max(1, Math.min(30, log2Entries));
+      keys = new long[1 << log2Entries];
+      data = new long[1 << log2Entries];
+      shift = 64-log2Entries;
+   }
+
+   // start of a new search; entries of older searches become preferred victims
+   public void newSearch()
+   {
+      generation = (generation+1) & 0x1F;
+   }
+
+   public void clear()
+   {
+      Arrays.fill(keys, 0L);
+      Arrays.fill(data, 0L);
+      probes.set(0);
+      hits.set(0);
+      stores.set(0);
+      overwrites.set(0);
+   }
+
+   // returns the entry stored for key, or 0 on a miss
+   public long probe(long key)
+   {
+      key |= USED;
+      int slot = index(key);
+      long entry = data[slot];
+      return (keys[slot] ^ entry) == key ? entry : 0;
+   }
+
+   public static int score(long entry)
+   {
+      return (int)entry;
+   }
+
+   public static int bound(long entry)
+   {
+      return (int)(entry >>> BOUND_SHIFT) & 0x3;
+   }
+
+   public static int depth(long entry)
+   {
+      return (int)(entry >>> DEPTH_SHIFT) & 0xFF;
+   }
+
+   public static int move(long entry)
+   {
+      return (int)(entry >>> MOVE_SHIFT) & 0xFFFF;
+   }
+
+   // Depth-preferred replacement: a slot is overwritten when it is empty, holds the same
+   // position, was written by an earlier search, or was searched no deeper than this one.
+   // Returns 0 when the entry was not kept, otherwise STORED or REPLACED.
+   public long store(long key, int score, int bound, int depth, int move)
+   {
+      key |= USED;
+      int slot = index(key);
+      long old = data[slot];
+      long oldKey = keys[slot] ^ old;
+      int gen = generation;
+      long result = STORED;
+      if (old != 0 && oldKey != key)
+      {
+         int oldGeneration = (int)(old >>> GENERATION_SHIFT) & 0x1F;
+         int oldDepth = (int)(old >>> DEPTH_SHIFT) & 0xFF;
+         if (oldGeneration == gen && oldDepth > depth)
+            return 0;
+         result = REPLACED;
+      }
+      long entry = (score & 0xFFFFFFFFL)
+            | ((long)bound << BOUND_SHIFT)
+            | ((long)(depth & 0xFF) << DEPTH_SHIFT)
+            | ((long)(move & 0xFFFF) << MOVE_SHIFT)
+            | ((long)gen << GENERATION_SHIFT)
+            | VALID;
+      keys[slot] = key ^ entry;
+      data[slot] = entry;
+      return result;
+   }
+
+   public void recordStatistics(long probeCount, long hitCount, long storeCount, long overwriteCount)
+   {
+      probes.addAndGet(probeCount);
+      hits.addAndGet(hitCount);
+      stores.addAndGet(storeCount);
+      overwrites.addAndGet(overwriteCount);
+   }
+
+   public int size()
+   {
+      return keys.length;
+   }
+
+   public long getProbes()
+   {
+      return probes.get();
+   }
+
+   public long getHits()
+   {
+      return hits.get();
+   }
+
+   public double getHitRate()
+   {
+      long p = probes.get();
+      return p == 0 ? 0.0 : (double)hits.get()/p;
+   }
+
+   public int usedEntries()
+   {
+      int used = 0;
+      for (long entry : data)
+      {
+         if (entry != 0)
+            used++;
+      }
+      return used;
+   }
+
+   public String toString()
+   {
+      return "TT size: "+size()+" |used: "+usedEntries()+" |probes: "+probes.get()+" |hits: "+hits.get()
+            +" |hit rate: "+String.format("%.1f%%", getHitRate()*100)+" |stores: "+stores.get()+" |overwrites: "+overwrites.get();
+   }
+
+   private int index(long key)
+   {
+      return (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+   }
+}
@@ -4,6 +4,19 @@ public class ValueSetter
 {
    private int col;
    private int row;
+   private final int rows;
+   private final int columns;
+
+   public ValueSetter()
+   {
+      this(Board.ROWS, Board.COLUMNS);
+   }
+
+   public ValueSetter(int rows, int columns)
+   {
+      this.rows = rows;
+      this.columns = columns;
+   }
 
    public int getCol()
    {
@@ -21,18 +34,21 @@ public class ValueSetter
          return true;
       }
 
-      if((int)(move.charAt(0))> 57|| (int)(move.charAt(0))<48)
+      for(int i = 0; i < move.length(); i++)
       {
-
-         return true;
+         if((int)(move.charAt(i))> 57|| (int)(move.charAt(i))<48)
+         {
+            return true;
+         }
       }
-         return false;
+      int value = Integer.parseInt(move);
+      return value < 1 || value > rows*columns;
    }
 
    public int checkValue(String value)
    {
 
-      if(value.length()>1)
+      if(value.length()==0 || value.length()>Integer.toString(rows*columns).length())
          return -1;
       else
          return 0;
@@ -46,74 +62,20 @@ public class ValueSetter
       }
       else
       {
-         setValue(Integer.parseInt(value.charAt(0)+""));
+         setValue(Integer.parseInt(value));
          return false;
       }
    }
 
 
+   // squares are numbered 1..rows*columns left to right, top to bottom
    public void setValue(int value)
    {
-
-      switch (value)
-      {
-      case 1:
-      {
-         col = 0;
-         row = 0;
-         break;
-      }
-      case 2:
-      {
-         col = 1;
-         row = 0;
-         break;
-      }
-      case 3:
+      if(value < 1 || value > rows*columns)
       {
-         col = 2;
-         row = 0;
-         break;
+         return;
       }
-      case 4:
-      {
-         col = 0;
-         row = 1;
-         break;
-      }
-      case 5:
-      {
-         col = 1;
-         row = 1;
-         break;
-      }
-      case 6:
-      {
-         col = 2;
-         row = 1;
-         break;
-      }
-      case 7:
-      {
-         col = 0;
-         row = 2;
-         break;
-      }
-      case 8:
-      {
-         col = 1;
-         row = 2;
-         break;
-      }
-      case 9:
-      {
-         row=2;
-         col=2;
-         break;
-      }
-
-      }
-
-
+      row = (value-1)/columns;
+      col = (value-1)%columns;
    }
 }
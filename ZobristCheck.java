@@ -0,0 +1,135 @@
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Checks the Zobrist hashes kept by Board: on every reachable 3x3 position the incremental
+// hash must match one computed from scratch, no two positions may share a hash, and two
+// positions must share a canonical key exactly when one is a symmetric image of the other.
+// Then a sample of random positions on a large board is checked for collisions.
+//
+// java ZobristCheck [samples] [rows] [columns] [winLength]
+// Exits with status 1 if anything fails.
+public class ZobristCheck
+{
+   private final Map<Long, Long> hashes = new HashMap<>();      // hash -> exact position
+   private final Map<Long, Long> canonical = new HashMap<>();   // canonical key -> smallest symmetric image
+   private long positions = 0;
+   private long failures = 0;
+
+   // visits every position reachable in a game, X first, stopping at wins
+   private void visit(Board board, Player toMove)
+   {
+      positions++;
+      long exact = board.getBits(Player.X) | board.getBits(Player.O) << board.getCells();
+      check(board, toMove, exact);
+      if (board.checkIfWinner(toMove.getOtherColor()) || board.boardIsFull())
+         return;
+      for (int cell = 0; cell < board.getCells(); cell++)
+      {
+         if (!board.isEmptyCell(cell))
+            continue;
+         board.setCell(toMove, cell);
+         visit(board, toMove.getOtherColor());
+         board.setCell(Player.EMPTY, cell);
+      }
+   }
+
+   private void check(Board board, Player toMove, long exact)
+   {
+      Board scratch = new Board(board.getRow(), board.getCol(), board.getWinLength());
+      for (int cell = 0; cell < board.getCells(); cell++)
+      {
+         scratch.setCell(board.getValueAtCell(cell), cell);
+      }
+      if (scratch.getHash(toMove) != board.getHash(toMove) || board.getHash() != board.getHash(toMove)
+            || scratch.getSymmetryHash(0) != board.getSymmetryHash(0))
+         fail("incremental hash differs from a fresh one on\n"+board);
+
+      Long other = hashes.putIfAbsent(board.getHash(toMove), exact);
+      if (other != null && other != exact)
+         fail("hash collision on\n"+board);
+
+      // smallest exact image over the symmetries must agree with the canonical key
+      BoardGeometry geometry = board.getGeometry();
+      long image = Long.MAX_VALUE;
+      for (int[] permutation : geometry.symmetries)
+      {
+         long x = 0, o = 0;
+         for (int cell = 0; cell < geometry.getCells(); cell++)
+         {
+            if (board.getValueAtCell(cell) == Player.X)
+               x |= 1L << permutation[cell];
+            else if (board.getValueAtCell(cell) == Player.O)
+               o |= 1L << permutation[cell];
+         }
+         image = Math.min(image, x | o << geometry.getCells());
+      }
+      long key = Symmetry.canonicalKey(board, toMove) >>> 3;
+      other = canonical.putIfAbsent(key, image);
+      if (other != null && other != image)
+         fail("canonical key shared by positions that are not symmetric:\n"+board);
+   }
+
+   private void sample(long samples, int rows, int columns, int winLength, long seed)
+   {
+      Random random = new Random(seed);
+      Board board = new Board(rows, columns, winLength);
+      Map<Long, String> seen = new HashMap<>();
+      long distinct = 0;
+      for (long i = 0; i < samples; i++)
+      {
+         board.refreshBoard();
+         int stones = 1 + random.nextInt(board.getCells());
+         Player player = Player.X;
+         for (int s = 0; s < stones; s++)
+         {
+            int cell = random.nextInt(board.getCells());
+            while (!board.isEmptyCell(cell))
+               cell = (cell+1) % board.getCells();
+            board.setCell(player, cell);
+            player = player.getOtherColor();
+         }
+         String position = position(board);
+         String other = seen.putIfAbsent(board.getHash(), position);
+         if (other == null)
+            distinct++;
+         else if (!other.equals(position))
+            fail("hash collision between two "+rows+"x"+columns+" positions");
+      }
+      System.out.println(rows+"x"+columns+": "+distinct+" distinct random positions, "+failures+" failures so far");
+   }
+
+   private static String position(Board board)
+   {
+      StringBuilder out = new StringBuilder(board.getCells());
+      for (int cell = 0; cell < board.getCells(); cell++)
+      {
+         out.append(board.getValueAtCell(cell).getShortName());
+      }
+      return out.toString();
+   }
+
+   private void fail(String message)
+   {
+      if (failures++ < 10)
+         System.out.println(message);
+   }
+
+   public static void main(String[] args)
+   {
+      long samples = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+      int rows = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+      int columns = args.length > 2 ? Integer.parseInt(args[2]) : rows;
+      int winLength = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+      ZobristCheck check = new ZobristCheck();
+      check.visit(new Board(), Player.X);
+      System.out.println("3x3: "+check.positions+" positions visited, "+check.hashes.size()+" distinct, "
+            +check.canonical.size()+" up to symmetry, "+check.failures+" failures");
+      check.sample(samples, rows, columns, winLength, 1);
+      if (check.failures > 0)
+         System.exit(1);
+   }
+}
@@ -0,0 +1,85 @@
+package tictactoe;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Win checks, the full-board check and the static evaluation. Each call takes the next of
+// four positions, as in Benchmarks, so the branches are not the same every time.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BoardBenchmarks
+{
+   private final Board[] small = {
+         position(new int[] {0, 4, 1, 5, 2}),
+         position(new int[] {4, 0, 8}),
+         position(new int[] {4, 0, 8, 5, 7, 2}),
+         position(new int[] {4, 0, 8, 2, 1, 7, 6, 3, 5})};
+   private final Board[] large = {
+         position(new int[] {112, 113, 96, 128, 98, 97, 126}, 15, 15, 5),
+         position(new int[] {112, 113, 96, 128, 98, 97, 126, 111, 80}, 15, 15, 5),
+         position(new int[] {0, 224, 16, 208, 32, 192}, 15, 15, 5),
+         position(new int[] {}, 15, 15, 5)};
+   private int next;
+
+   @Benchmark public boolean checkIfWinner3x3()
+   {
+      return small[next++ & 3].checkIfWinner(Player.X);
+   }
+
+   @Benchmark public boolean checkIfWinner15x15()
+   {
+      return large[next++ & 3].checkIfWinner(Player.X);
+   }
+
+   @Benchmark public boolean isWinningMove15x15()
+   {
+      return large[next++ & 3].isWinningMove(Player.X, 126);
+   }
+
+   @Benchmark public boolean boardIsFull()
+   {
+      return small[next++ & 3].boardIsFull();
+   }
+
+   // evaluateLine is gone: Board keeps the line scores up to date as stones come and go
+   @Benchmark public int evaluate3x3()
+   {
+      return ComputerMove.evaluate(small[next++ & 3], Player.O);
+   }
+
+   @Benchmark public int evaluate15x15()
+   {
+      return ComputerMove.evaluate(large[next++ & 3], Player.O);
+   }
+
+   // 3x3 with the given cells played in order, X first
+   static Board position(int[] cells)
+   {
+      return position(cells, Board.ROWS, Board.COLUMNS, Board.WIN_LENGTH);
+   }
+
+   static Board position(int[] cells, int rows, int columns, int winLength)
+   {
+      Board board = new Board(rows, columns, winLength);
+      Player player = Player.X;
+      for (int cell : cells)
+      {
+         board.setCell(player, cell);
+         player = player.getOtherColor();
+      }
+      return board;
+   }
+}
@@ -0,0 +1,74 @@
+package tictactoe;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Whole 3x3 games without a GUI: numbered moves through MakeMove and its ValueSetter string
+// round trip, and games of the engine against random moves.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Dtictactoe.movetable=../movetable.bin")
+public class GameBenchmarks
+{
+   private static final int[] MOVES = {5, 1, 9, 3, 2, 8, 7, 4, 6};
+
+   private final MakeMove makeMove = new MakeMove();
+   private final Game game = new Game(Board.ROWS, Board.COLUMNS, Board.WIN_LENGTH);
+   private final MoveStrategy random = new RandomMove();
+   private ComputerMove table;
+   private ComputerMove search;
+
+   @Setup public void setUp()
+   {
+      table = new ComputerMove();
+      search = new ComputerMove();
+      search.setMoveTable(null);
+   }
+
+   @Benchmark public int makeMoveGame()
+   {
+      makeMove.getBoard().refreshBoard();
+      int wins = 0;
+      Player player = Player.X;
+      for (int value : MOVES)
+      {
+         wins += makeMove.makeMove(value, player) ? 1 : 0;
+         player = player.getOtherColor();
+      }
+      return wins;
+   }
+
+   @Benchmark public int moveTableVsRandom()
+   {
+      return play(table);
+   }
+
+   @Benchmark public int negamaxVsRandom()
+   {
+      return play(search);
+   }
+
+   private int play(MoveStrategy x)
+   {
+      game.newGame();
+      Player player = Player.X;
+      while (game.playGame(player, player == Player.X ? x : random))
+      {
+         player = player.getOtherColor();
+      }
+      return game.getBoard().getStones();
+   }
+}
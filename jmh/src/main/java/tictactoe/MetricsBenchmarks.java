@@ -0,0 +1,61 @@
+package tictactoe;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What SearchMetrics costs a search: the same 3x3 searches as MoveBenchmarks with metrics
+// off (the default, a null check per move) and on. The warm opening is the shortest search
+// there is, so a per-move cost shows most there. More forks than elsewhere, so the error
+// bars are narrow enough to tell the two apart. Against the -Pno-hooks build (see pom.xml),
+// "off" shows what the hooks cost when nobody listens; run the two jars in turn, as this
+// machine's speed drifts more between runs than that.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(5)
+public class MetricsBenchmarks
+{
+   @Param({"off", "on"})
+   public String metrics;
+
+   private ComputerMove warm;
+   private ComputerMove cold;
+   private final Board opening = new Board();
+   private final Board midgame = BoardBenchmarks.position(new int[] {4, 0, 8});
+
+   @Setup public void setUp()
+   {
+      SearchMetrics recorder = metrics.equals("on") ? new SearchMetrics() : null;
+      warm = new ComputerMove();
+      warm.setMoveTable(null);
+      warm.setMetrics(recorder);
+      cold = new ComputerMove();
+      cold.setMoveTable(null);
+      cold.setTranspositionTableBits(10);
+      cold.setMetrics(recorder);
+   }
+
+   @Benchmark public int[] openingWarm()
+   {
+      return warm.move(Player.X, opening);
+   }
+
+   @Benchmark public int[] midgameCold()
+   {
+      cold.getTranspositionTable().clear();
+      return cold.move(Player.O, midgame);
+   }
+}
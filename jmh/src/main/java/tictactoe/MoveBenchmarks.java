@@ -0,0 +1,64 @@
+package tictactoe;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ComputerMove.move on 3x3 from the opening, a midgame and a near-terminal position.
+//   table  answered from the move table
+//   warm   searched, with the transposition table kept between calls
+//   cold   searched, with a 1024-entry table cleared before every call
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Dtictactoe.movetable=../movetable.bin")
+public class MoveBenchmarks
+{
+   @Param({"table", "warm", "cold"})
+   public String engine;
+
+   @Param({"opening", "midgame", "near-terminal"})
+   public String position;
+
+   private ComputerMove computer;
+   private Board board;
+   private Player player;
+   private boolean cold;
+
+   @Setup public void setUp()
+   {
+      computer = new ComputerMove();
+      if (engine.equals("table") && computer.getMoveTable() == null)
+         throw new IllegalStateException("No move table; run from the jmh directory");
+      if (!engine.equals("table"))
+         computer.setMoveTable(null);
+      cold = engine.equals("cold");
+      if (cold)
+         computer.setTranspositionTableBits(10);
+      switch (position)
+      {
+         case "opening": board = new Board(); player = Player.X; break;
+         case "midgame": board = BoardBenchmarks.position(new int[] {4, 0, 8}); player = Player.O; break;
+         default: board = BoardBenchmarks.position(new int[] {4, 0, 8, 5, 7, 2}); player = Player.O; break;
+      }
+   }
+
+   @Benchmark public int[] move()
+   {
+      if (cold)
+         computer.getTranspositionTable().clear();
+      return computer.move(player, board);
+   }
+}